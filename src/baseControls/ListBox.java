@@ -63,6 +63,7 @@ public final class ListBox extends Control implements ControlListener {
 	public static final int EVENT_ITEMSELECTED = 0x3001;
 	public static final int EVENT_LONGKEY = 0x3002;
 	public static final int EVENT_LONGPOINTER = 0x3003;
+	public static final int EVENT_ITEMSMOVED = 0x3004;
 	
 	public ListBox(ControlContainer container, int left, int top, int width, int height) {
 		super(container, left, top, width, height, true, true, false);
@@ -663,10 +664,17 @@ public final class ListBox extends Control implements ControlListener {
 			return;
 		}
 		
+		final Point moved = new Point(firstMarked, lastMarked);
+		
 		firstMarked += d;
 		lastMarked += d;
 		
 		invalidate();
+		
+		if (listener != null) {
+			//eventArg2 holds the first and last indices before the move
+			listener.eventControl(this, EVENT_ITEMSMOVED, d, moved);
+		}
 	}
 	
 	public final boolean isSelected(int index) {
@@ -508,6 +508,14 @@ public final class Main extends Canvas implements CommandListener, Container, Me
 		postMessage(Main, MSG_SHOWFORMITEM, 0, item);
 	}
 	
+	public static boolean isScreenSaverActive() {
+		return SSActive;
+	}
+	
+	public static boolean isCanvasShown() {
+		return (Main != null && Main.isShown());
+	}
+	
 	public static boolean isMainWindowActive() {
 		return ((!SSActive) && (AppWindow == MainWindow));
 	}
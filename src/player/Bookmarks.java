@@ -0,0 +1,164 @@
+//
+// Bookmarks.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/Bookmarks.java
+//
+
+package player;
+
+import baseIO.ByteInStream;
+import baseIO.ByteOutStream;
+import baseIO.File;
+import baseIO.FileEnumerationListener;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+public final class Bookmarks {
+	private static final String FileName = "bookmarks";
+	private static final int MaximumEntries = 64;
+	public static final int MinimumDurationMS = 10 * 60000; //only songs this long are bookmarked
+	private static final int MinimumPositionMS = 30000, EndMarginMS = 30000;
+	private static final int MinimumSaveIntervalMS = 60000;
+	
+	//path -> { positionMS, time of the last update }
+	private static Hashtable entries;
+	private static boolean dirty;
+	private static long lastSave;
+	private static int resumed;
+	
+	private Bookmarks() {
+	}
+	
+	private static void ensureLoaded() {
+		if (entries != null) return;
+		entries = new Hashtable(16);
+		final File file = new File(FileName, false);
+		if (file.openExisting()) {
+			file.enumerateRecords(new FileEnumerationListener() {
+				public boolean recordEnumerated(ByteInStream stream) {
+					final String path = stream.readString();
+					entries.put(path, new long[] { stream.readInt(), stream.readLong() });
+					return true;
+				}
+			});
+		}
+		file.close();
+	}
+	
+	static synchronized int getPositionMS(Song song) {
+		if (song == null) return 0;
+		ensureLoaded();
+		final long[] e = (long[])entries.get(song.getFileName());
+		return ((e == null) ? 0 : (int)e[0]);
+	}
+	
+	static synchronized void put(Song song, int positionMS, int durationMS) {
+		if (song == null || durationMS < MinimumDurationMS) return;
+		ensureLoaded();
+		if (positionMS < MinimumPositionMS || positionMS > (durationMS - EndMarginMS)) {
+			//nothing worth resuming (barely started or almost finished)
+			remove(song);
+			return;
+		}
+		final String path = song.getFileName();
+		long[] e = (long[])entries.get(path);
+		if (e == null) {
+			if (entries.size() >= MaximumEntries) removeOldest();
+			e = new long[2];
+			entries.put(path, e);
+		} else if (e[0] == positionMS) {
+			return;
+		}
+		e[0] = positionMS;
+		e[1] = System.currentTimeMillis();
+		dirty = true;
+	}
+	
+	private static void removeOldest() {
+		String oldest = null;
+		long t = Long.MAX_VALUE;
+		for (Enumeration en = entries.keys(); en.hasMoreElements(); ) {
+			final String path = (String)en.nextElement();
+			final long[] e = (long[])entries.get(path);
+			if (e[1] < t) {
+				t = e[1];
+				oldest = path;
+			}
+		}
+		if (oldest != null) entries.remove(oldest);
+	}
+	
+	static synchronized void remove(Song song) {
+		if (entries != null && entries.remove(song.getFileName()) != null) dirty = true;
+	}
+	
+	static synchronized void resumed() {
+		resumed++;
+	}
+	
+	static synchronized boolean saveIfDue() {
+		//bookmarks change at every pause and track change, but the
+		//flash memory is only written once in a while
+		if (!dirty || (System.currentTimeMillis() - lastSave) < MinimumSaveIntervalMS) return true;
+		return save();
+	}
+	
+	public static synchronized boolean save() {
+		if (entries == null || !dirty) return true;
+		final File file = new File(FileName, false);
+		if (!file.openTruncate()) {
+			file.close();
+			return false;
+		}
+		final ByteOutStream outp = new ByteOutStream(64);
+		for (Enumeration en = entries.keys(); en.hasMoreElements(); ) {
+			final String path = (String)en.nextElement();
+			final long[] e = (long[])entries.get(path);
+			outp.reset();
+			outp.writeString(path);
+			outp.writeInt((int)e[0]);
+			outp.writeLong(e[1]);
+			file.addRecord(outp);
+		}
+		file.close();
+		dirty = false;
+		lastSave = System.currentTimeMillis();
+		return true;
+	}
+	
+	public static synchronized int getCount() {
+		ensureLoaded();
+		return entries.size();
+	}
+	
+	public static int getResumedCount() {
+		return resumed;
+	}
+}
@@ -0,0 +1,97 @@
+//
+// CrossfadeRamp.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/CrossfadeRamp.java
+//
+
+package player;
+
+final class CrossfadeRamp {
+	private int[] curve; //equal power gain, in 1/1024 units
+	private long startWall;
+	private int durationMS, stepMS, steps, step;
+	private boolean running;
+	
+	public final void configure(int durationMS, int stepMS) {
+		//the tables are only rebuilt when the duration changes, and
+		//never while a ramp is running, so nothing is allocated during
+		//the transition itself
+		if (durationMS == this.durationMS && stepMS == this.stepMS && curve != null) return;
+		this.durationMS = durationMS;
+		this.stepMS = stepMS;
+		steps = durationMS / stepMS;
+		if (steps < 1) steps = 1;
+		curve = new int[steps + 1];
+		for (int i = 0; i <= steps; i++) {
+			curve[i] = (int)(Math.sin((Math.PI * 0.5 * i) / steps) * 1024.0 + 0.5);
+		}
+		running = false;
+	}
+	
+	public final int getDurationMS() {
+		return durationMS;
+	}
+	
+	public final int getStepMS() {
+		return stepMS;
+	}
+	
+	public final void begin(long now) {
+		startWall = now;
+		step = 0;
+		running = true;
+	}
+	
+	public final void end() {
+		running = false;
+	}
+	
+	public final boolean isRunning() {
+		return running;
+	}
+	
+	public final boolean advance(long now) {
+		//the step is taken from the wall clock, so a late tick does not
+		//make the ramp longer (returns false when the ramp has ended)
+		if (!running) return false;
+		final long s = (now - startWall) / stepMS;
+		step = ((s >= steps) ? steps : ((s < 0) ? 0 : (int)s));
+		if (step >= steps) running = false;
+		return running;
+	}
+	
+	public final int getFadeInLevel(int volume) {
+		return (running ? ((volume * curve[step]) >> 10) : volume);
+	}
+	
+	public final int getFadeOutLevel(int volume) {
+		return (running ? ((volume * curve[steps - step]) >> 10) : 0);
+	}
+}
@@ -0,0 +1,183 @@
+//
+// DurationEstimator.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/DurationEstimator.java
+//
+
+package player;
+
+import java.io.InputStream;
+
+final class DurationEstimator {
+	//how many bytes after the ID3v2 tag are enough to find the first
+	//frame along with its Xing/Info/VBRI header
+	static final int FrameProbeLength = 2048;
+	
+	//kbps, [MPEG-1 layer I, II, III, MPEG-2/2.5 layer I, II and III]
+	private static final short[][] Bitrates = {
+		{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+		{ 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+		{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 }
+	};
+	private static final int[] SampleRates = { 44100, 48000, 32000 };
+	
+	private DurationEstimator() {
+	}
+	
+	static int readBE(byte[] b, int offset) {
+		return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+	}
+	
+	private static int readLE(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8) | ((b[offset + 2] & 0xFF) << 16) | ((b[offset + 3] & 0xFF) << 24);
+	}
+	
+	static boolean matches(byte[] b, int offset, String id) {
+		for (int i = id.length() - 1; i >= 0; i--) {
+			if ((b[offset + i] & 0xFF) != id.charAt(i)) return false;
+		}
+		return true;
+	}
+	
+	static int frameLength(byte[] b, int p) {
+		//returns the length of the MPEG audio frame starting at p, or 0 if
+		//there is no valid header there
+		if ((b[p] & 0xFF) != 0xFF || (b[p + 1] & 0xE0) != 0xE0) return 0;
+		final int version = (b[p + 1] >> 3) & 3; //3 = MPEG-1, 2 = MPEG-2, 0 = MPEG-2.5
+		final int layer = (b[p + 1] >> 1) & 3; //3 = I, 2 = II, 1 = III
+		final int bitrateIndex = (b[p + 2] >> 4) & 0xF;
+		final int sampleRateIndex = (b[p + 2] >> 2) & 3;
+		if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) return 0;
+		final int bitrate = bitrate(version, layer, bitrateIndex) * 1000;
+		final int sampleRate = sampleRate(version, sampleRateIndex);
+		final int padding = (b[p + 2] >> 1) & 1;
+		if (layer == 3) return ((12 * bitrate / sampleRate) + padding) << 2;
+		return (((samplesPerFrame(version, layer) >> 3) * bitrate) / sampleRate) + padding;
+	}
+	
+	static int bitrate(int version, int layer, int index) {
+		return Bitrates[(version == 3) ? (3 - layer) : ((layer == 3) ? 3 : 4)][index];
+	}
+	
+	static int sampleRate(int version, int index) {
+		return SampleRates[index] >> ((version == 3) ? 0 : ((version == 2) ? 1 : 2));
+	}
+	
+	static int samplesPerFrame(int version, int layer) {
+		return ((layer == 3) ? 384 : ((layer == 1 && version != 3) ? 576 : 1152));
+	}
+	
+	static int mp3(byte[] b, int offset, int end, long audioBytes) {
+		//b[offset] is the first byte after the ID3v2 tag, and audioBytes is
+		//how many bytes there are from there up to the end of the file
+		for (int p = offset; p + 4 <= end; p++) {
+			final int length = frameLength(b, p);
+			if (length == 0) continue;
+			//when possible, make sure the next frame is right where it
+			//should be, as a false sync is not that uncommon
+			if (p + length + 4 <= end && frameLength(b, p + length) == 0) continue;
+			final int version = (b[p + 1] >> 3) & 3;
+			final int layer = (b[p + 1] >> 1) & 3;
+			final int sampleRate = sampleRate(version, (b[p + 2] >> 2) & 3);
+			final int samples = samplesPerFrame(version, layer);
+			final boolean mono = (((b[p + 3] >> 6) & 3) == 3);
+			//the Xing/Info header (written by LAME, among others) is
+			//placed right after the side information of the first frame
+			final int xing = p + 4 + ((version == 3) ? (mono ? 17 : 32) : (mono ? 9 : 17));
+			if (xing + 12 <= end && (matches(b, xing, "Xing") || matches(b, xing, "Info")) && (b[xing + 7] & 1) != 0) {
+				final int frames = readBE(b, xing + 8);
+				if (frames > 0) return (int)(((long)frames * samples * 1000) / sampleRate);
+			}
+			//the VBRI header (Fraunhofer) is always 32 bytes after the header
+			final int vbri = p + 4 + 32;
+			if (vbri + 18 <= end && matches(b, vbri, "VBRI")) {
+				final int frames = readBE(b, vbri + 14);
+				if (frames > 0) return (int)(((long)frames * samples * 1000) / sampleRate);
+			}
+			//constant bitrate, assuming all frames are just like this one
+			final long bytes = audioBytes - (p - offset);
+			return ((bytes <= 0) ? -1 : (int)((bytes * 8) / bitrate(version, layer, (b[p + 2] >> 4) & 0xF)));
+		}
+		return -1;
+	}
+	
+	static int mvhd(byte[] b, int length) {
+		//full box: version, flags, then either 32 or 64-bit times
+		if (length < 20) return -1;
+		final long timeScale, duration;
+		if (b[0] == 1) {
+			if (length < 32) return -1;
+			timeScale = readBE(b, 20) & 0xFFFFFFFFL;
+			duration = ((long)readBE(b, 24) << 32) | (readBE(b, 28) & 0xFFFFFFFFL);
+		} else {
+			timeScale = readBE(b, 12) & 0xFFFFFFFFL;
+			duration = readBE(b, 16) & 0xFFFFFFFFL;
+		}
+		return ((timeScale == 0 || duration <= 0) ? -1 : (int)((duration * 1000) / timeScale));
+	}
+	
+	static int flac(byte[] b) {
+		//STREAMINFO: min/max block and frame sizes (10 bytes), then 20 bits
+		//of sample rate, 3 + 5 bits of channels and bps, 36 bits of samples
+		final int sampleRate = ((b[10] & 0xFF) << 12) | ((b[11] & 0xFF) << 4) | ((b[12] & 0xF0) >> 4);
+		final long samples = ((long)(b[13] & 0x0F) << 32) | (readBE(b, 14) & 0xFFFFFFFFL);
+		return ((sampleRate == 0 || samples == 0) ? -1 : (int)((samples * 1000) / sampleRate));
+	}
+	
+	static int wav(InputStream in, byte[] b, long size) throws Exception {
+		//RIFF, size, WAVE, then chunks (id, size, data) up to "data"
+		if (!TagReader.readFully(in, b, 0, 12) || !matches(b, 0, "RIFF") || !matches(b, 8, "WAVE")) return -1;
+		long position = 12;
+		int byteRate = 0;
+		while (position + 8 <= size) {
+			if (!TagReader.readFully(in, b, 0, 8)) return -1;
+			position += 8;
+			final long chunkLength = readLE(b, 4) & 0xFFFFFFFFL;
+			if (matches(b, 0, "data")) {
+				if (byteRate <= 0) return -1;
+				//files being recorded (or streamed) have no size yet
+				final long bytes = ((chunkLength == 0 || chunkLength > size - position) ? (size - position) : chunkLength);
+				return (int)((bytes * 1000) / byteRate);
+			}
+			final long padded = chunkLength + (chunkLength & 1);
+			if (matches(b, 0, "fmt ") && chunkLength >= 16) {
+				if (!TagReader.readFully(in, b, 0, 16)) return -1;
+				byteRate = readLE(b, 8);
+				if (!TagReader.skipFully(in, padded - 16)) return -1;
+			} else if (!TagReader.skipFully(in, padded)) {
+				return -1;
+			}
+			position += padded;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,213 @@
+//
+// EqualizedInputStream.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/EqualizedInputStream.java
+//
+
+package player;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+final class EqualizedInputStream extends InputStream {
+	private static final int MaximumHeaderLength = 0x10000;
+	private static final int BufferLength = 4096;
+	
+	private final InputStream in;
+	private final javax.microedition.io.Connection connection;
+	private final SoftwareEqualizer equalizer;
+	private final byte[] single;
+	private byte[] header;
+	private byte[] buffer;
+	private int headerPos, headerLength;
+	private int pos, limit, end; //[pos, limit) is ready, [limit, end) awaits a whole frame
+	private int channels, sampleRate, frameLength, version;
+	private int[] coefs, active, state;
+	private int activeCount;
+	private boolean pcm, eof;
+	
+	public EqualizedInputStream(InputStream in, javax.microedition.io.Connection connection, SoftwareEqualizer equalizer) {
+		this.in = in;
+		this.connection = connection;
+		this.equalizer = equalizer;
+		this.single = new byte[1];
+	}
+	
+	public static boolean isSupported(String fileName) {
+		//only plain WAV files hold PCM samples we can filter without a decoder
+		return fileName.toLowerCase().endsWith(".wav");
+	}
+	
+	private static int readLE(byte[] b, int offset, int length) {
+		int x = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			x = (x << 8) | (b[offset + i] & 0xFF);
+		}
+		return x;
+	}
+	
+	private final boolean readHeaderBytes(int count) throws IOException {
+		if (headerLength + count > MaximumHeaderLength) return false;
+		if (headerLength + count > header.length) {
+			final byte[] h = new byte[Math.max(headerLength + count, header.length << 1)];
+			System.arraycopy(header, 0, h, 0, headerLength);
+			header = h;
+		}
+		while (count > 0) {
+			final int n = in.read(header, headerLength, count);
+			if (n < 0) return false;
+			headerLength += n;
+			count -= n;
+		}
+		return true;
+	}
+	
+	private final void readHeader() throws IOException {
+		//the header bytes are kept and handed over unchanged, while we
+		//look for the format of the samples
+		header = new byte[64];
+		if (!readHeaderBytes(12) ||
+			header[0] != 'R' || header[1] != 'I' || header[2] != 'F' || header[3] != 'F' ||
+			header[8] != 'W' || header[9] != 'A' || header[10] != 'V' || header[11] != 'E')
+			return;
+		//pcm is only set once the data chunk is found, as the samples
+		//are passed through untouched when the header is cut short
+		boolean supported = false;
+		for (; ; ) {
+			final int c = headerLength;
+			if (!readHeaderBytes(8)) return;
+			final int size = readLE(header, c + 4, 4);
+			if (header[c] == 'd' && header[c + 1] == 'a' && header[c + 2] == 't' && header[c + 3] == 'a')
+				break;
+			if (size < 0 || !readHeaderBytes(size + (size & 1))) return;
+			if (header[c] == 'f' && header[c + 1] == 'm' && header[c + 2] == 't' && header[c + 3] == ' ' && size >= 16) {
+				final int format = readLE(header, c + 8, 2);
+				channels = readLE(header, c + 10, 2);
+				sampleRate = readLE(header, c + 12, 4);
+				final int bits = readLE(header, c + 22, 2);
+				//only 16-bit integer PCM (format 1) is filtered
+				supported = (format == 1 && bits == 16 && channels >= 1 && channels <= 2 && sampleRate > 0);
+			}
+		}
+		if (supported) {
+			frameLength = channels << 1;
+			final int bandCount = equalizer.getNumberOfBands();
+			coefs = new int[bandCount * 5];
+			active = new int[bandCount];
+			state = new int[bandCount * channels * 4];
+			version = equalizer.getVersion() - 1;
+			pcm = true;
+		}
+	}
+	
+	private final void redesign() {
+		version = equalizer.getVersion();
+		activeCount = equalizer.design(sampleRate, coefs, active);
+		//bands that are no longer active start over from silence
+		final int bandCount = equalizer.getNumberOfBands();
+		for (int b = 0; b < bandCount; b++) {
+			int a = activeCount - 1;
+			while (a >= 0 && active[a] != b) a--;
+			if (a < 0) {
+				for (int ch = 0; ch < channels; ch++) {
+					final int s = ((ch * bandCount) + b) << 2;
+					state[s] = 0;
+					state[s + 1] = 0;
+					state[s + 2] = 0;
+					state[s + 3] = 0;
+				}
+			}
+		}
+	}
+	
+	private final boolean fill() throws IOException {
+		//move the incomplete frame to the beginning and read more data
+		if (eof) return false;
+		final int carry = end - limit;
+		if (carry > 0) System.arraycopy(buffer, limit, buffer, 0, carry);
+		pos = 0;
+		limit = 0;
+		end = carry;
+		final int n = in.read(buffer, end, buffer.length - end);
+		if (n < 0) {
+			//hand over whatever is left, even if it is not a whole frame
+			eof = true;
+			limit = end;
+			return (limit > 0);
+		}
+		end += n;
+		if (!pcm) {
+			limit = end;
+			return true;
+		}
+		limit = end - (end % frameLength);
+		if (equalizer.getVersion() != version)
+			redesign();
+		SoftwareEqualizer.process(buffer, 0, limit, channels, equalizer.getNumberOfBands(), coefs, active, activeCount, state);
+		return true;
+	}
+	
+	public final int read(byte[] b, int off, int len) throws IOException {
+		if (len <= 0) return 0;
+		if (header == null) {
+			readHeader();
+			buffer = new byte[BufferLength];
+		}
+		if (headerPos < headerLength) {
+			if (len > headerLength - headerPos) len = headerLength - headerPos;
+			System.arraycopy(header, headerPos, b, off, len);
+			headerPos += len;
+			return len;
+		}
+		while (pos >= limit) {
+			if (!fill()) return -1;
+		}
+		if (len > limit - pos) len = limit - pos;
+		System.arraycopy(buffer, pos, b, off, len);
+		pos += len;
+		return len;
+	}
+	
+	public final int read() throws IOException {
+		return ((read(single, 0, 1) <= 0) ? -1 : (single[0] & 0xFF));
+	}
+	
+	public final int available() throws IOException {
+		return ((header == null) ? 0 : ((headerLength - headerPos) + (limit - pos)));
+	}
+	
+	public final void close() throws IOException {
+		try {
+			in.close();
+		} finally {
+			if (connection != null) connection.close();
+		}
+	}
+}
@@ -35,23 +35,35 @@ package player;
 
 import baseIO.ByteInStream;
 import baseIO.ByteOutStream;
+import baseUI.Main;
+import baseUI.MessageListener;
+import baseUI.MessageThread;
 import baseUtil.Map;
 import baseUtil.Vector;
 
-public final class Equalizer {
+public final class Equalizer implements MessageListener {
 	private final javax.microedition.amms.control.audioeffect.EqualizerControl equalizer;
+	private final SoftwareEqualizer software; //used only when AMMS is not available
 	private final Player player;
 	private final Vector presets;
 	private final int[] bands;
+	private final int[] pendingLevels; //levels of a gesture not applied yet (NoLevel = unchanged)
+	private MessageThread flushThread;
+	private boolean gestureApplied, reapplyFails;
 	private Preset preset;
 	
+	private static final int FlushMS = 100;
+	private static final int NoLevel = Integer.MIN_VALUE;
+	
 	private static final int CFG_ENABLED = 0x0201;
 	private static final int CFG_SELPRESETNAME = 0x0202;
 	private static final int CFG_CUSTOMPRESETCOUNT = 0x0203;
+	private static final int CFG_REAPPLYFAILS = 0x0204;
 	private static final int CFG_CUSTOMPRESETFIRST = 0x0210;
 	
-	private Equalizer(javax.microedition.amms.control.audioeffect.EqualizerControl equalizer, Player player, Map map) {
+	private Equalizer(javax.microedition.amms.control.audioeffect.EqualizerControl equalizer, SoftwareEqualizer software, Player player, Map map) {
 		this.equalizer = equalizer;
+		this.software = software;
 		this.player = player;
 		this.presets = new Vector(8);
 		
@@ -60,13 +72,24 @@ public final class Equalizer {
 			for (int i = 0; i < this.bands.length; i++) {
 				this.bands[i] = equalizer.getCenterFreq(i);
 			}
+		} else if (software != null) {
+			this.bands = new int[software.getNumberOfBands()];
+			for (int i = 0; i < this.bands.length; i++) {
+				this.bands[i] = software.getCenterFreq(i);
+			}
 		} else {
 			this.bands = new int[0];
 		}
+		player.setEqualizer(this);
+		this.pendingLevels = new int[this.bands.length];
+		for (int i = 0; i < this.pendingLevels.length; i++) {
+			this.pendingLevels[i] = NoLevel;
+		}
 		
 		final boolean enabled = map.getBoolean(CFG_ENABLED, false);
 		final String presetName = map.getString(CFG_SELPRESETNAME, "");
 		final int customPresetCount = map.getInt(CFG_CUSTOMPRESETCOUNT, 0);
+		this.reapplyFails = map.getBoolean(CFG_REAPPLYFAILS, false);
 		
 		final int minLevel = getMinBandLevel();
 		final int maxLevel = getMaxBandLevel();
@@ -82,7 +105,8 @@ public final class Equalizer {
 			}
 		}
 		
-		final String[] defpresets = equalizer.getPresetNames();
+		//the software equalizer has no built-in presets
+		final String[] defpresets = ((equalizer != null) ? equalizer.getPresetNames() : null);
 		if (defpresets != null && defpresets.length > 0) {
 			for (int i = 0; i < defpresets.length; i++) {
 				if (defpresets[i] != null && defpresets[i].length() > 0) {
@@ -111,14 +135,18 @@ public final class Equalizer {
 			javax.microedition.amms.control.audioeffect.EqualizerControl equalizer = (javax.microedition.amms.control.audioeffect.EqualizerControl)javax.microedition.amms.GlobalManager.getControl("javax.microedition.amms.control.audioeffect.EqualizerControl");
 			if (equalizer != null) {
 				equalizer.setEnabled(true);
-				return new Equalizer(equalizer, player, map);
+				return new Equalizer(equalizer, null, player, map);
 			}
 		} catch (Throwable ex) { }
-		return create();
+		return createSoftware(player, map);
 	}
 	
-	private static Equalizer create() {
-		return new Equalizer(null, null, new Map());
+	private static Equalizer createSoftware(Player player, Map map) {
+		//without AMMS, WAV files can still be equalized by filtering
+		//their samples before handing them over to MMAPI
+		final SoftwareEqualizer software = new SoftwareEqualizer();
+		player.setSoftwareEqualizer(software);
+		return new Equalizer(null, software, player, map);
 	}
 	
 	public static Equalizer createEqualizer(Player player, Map map) {
@@ -128,12 +156,13 @@ public final class Equalizer {
 				return create(player, map);
 			}
 		} catch (Throwable ex) { }
-		return create();
+		return createSoftware(player, map);
 	}
 	
 	public final void saveConfig(Map map) {
 		map.putBoolean(CFG_ENABLED, isEnabled());
 		map.putString(CFG_SELPRESETNAME, (preset != null) ? preset.name : "");
+		map.putBoolean(CFG_REAPPLYFAILS, reapplyFails);
 		int customPresetCount = 0;
 		for (int i = 0; i < presets.size(); i++) {
 			if (((Preset)(presets.elementAt(i))).isCustom) {
@@ -155,11 +184,34 @@ public final class Equalizer {
 	}
 	
 	public final boolean isAlive() {
-		return (equalizer != null);
+		return (equalizer != null || software != null);
+	}
+	
+	public final boolean isSoftware() {
+		return (software != null);
+	}
+	
+	public final String benchmark() {
+		//how many times faster than real-time (stereo, 44100 Hz) the
+		//software equalizer is, for each number of active bands
+		final StringBuffer sb = new StringBuffer(128);
+		for (int i = 1; i <= bands.length; i++) {
+			final int rate = SoftwareEqualizer.benchmark(i, 500);
+			sb.append(i);
+			sb.append((i == 1) ? " banda: " : " bandas: ");
+			sb.append(rate);
+			sb.append(" amostras/s (");
+			final int x = (rate * 10) / 44100;
+			sb.append(x / 10);
+			sb.append('.');
+			sb.append(x % 10);
+			sb.append("x)\n");
+		}
+		return sb.toString();
 	}
 	
 	public final Preset[] getPresets() {
-		if (equalizer != null) {
+		if (isAlive()) {
 			final Preset[] p = new Preset[presets.size()];
 			for (int i = 0; i < p.length; i++) {
 				p[i] = (Preset)(presets.elementAt(i));
@@ -180,11 +232,11 @@ public final class Equalizer {
 	}
 	
 	public final int getMinBandLevel() {
-		return ((equalizer != null) ? equalizer.getMinBandLevel() : 0);
+		return ((equalizer != null) ? equalizer.getMinBandLevel() : ((software != null) ? SoftwareEqualizer.MinBandLevel : 0));
 	}
 	
 	public final int getMaxBandLevel() {
-		return ((equalizer != null) ? equalizer.getMaxBandLevel() : 100);
+		return ((equalizer != null) ? equalizer.getMaxBandLevel() : ((software != null) ? SoftwareEqualizer.MaxBandLevel : 100));
 	}
 	
 	public final int[] getBands() {
@@ -199,6 +251,10 @@ public final class Equalizer {
 			for (int i = 0; i < levels.length; i++) {
 				levels[i] = equalizer.getBandLevel(i);
 			}
+		} else if (software != null) {
+			for (int i = 0; i < levels.length; i++) {
+				levels[i] = software.getBandLevel(i);
+			}
 		}
 		return levels;
 	}
@@ -277,43 +333,163 @@ public final class Equalizer {
 		return true;
 	}
 
+	public final void eventMessage(int message, int iParam, Object oParam) {
+		if (message == Main.SYSMSG_TIMER) flushPending();
+	}
+	
+	private final void flushPending() {
+		//applies only the bands that changed since the last flush, and
+		//when a flush finds nothing new, the gesture is over (the levels
+		//are applied holding the same lock setPreset takes, so a preset
+		//chosen meanwhile is never overwritten by an older gesture)
+		synchronized (pendingLevels) {
+			int count = 0;
+			for (int i = 0; i < pendingLevels.length; i++) {
+				final int level = pendingLevels[i];
+				if (level == NoLevel) continue;
+				pendingLevels[i] = NoLevel;
+				count++;
+				if (equalizer != null) {
+					equalizer.setBandLevel(level, i);
+				} else if (software != null) {
+					software.setBandLevel(level, i);
+				}
+			}
+			if (count == 0) {
+				if (flushThread != null) {
+					flushThread.interrupt();
+					flushThread = null;
+				}
+				if (gestureApplied) {
+					gestureApplied = false;
+					//the prepared next player is told only once, with
+					//the final levels
+					effectChanged();
+				}
+			} else if (equalizer != null) {
+				equalizer.setEnabled(true);
+				gestureApplied = true;
+			}
+		}
+	}
+	
+	private final void effectChanged() {
+		//the prepared next player is kept, and the levels are applied to
+		//it when it starts, unless that has already failed on this device
+		if (reapplyFails) player.clearNext();
+		else player.effectChanged();
+	}
+	
+	final boolean applyTo(javax.microedition.media.Player p) {
+		//called by the player right before p starts, if the levels have
+		//changed after p was created
+		if (equalizer == null) return true;
+		try {
+			final javax.microedition.amms.control.audioeffect.EqualizerControl e = (javax.microedition.amms.control.audioeffect.EqualizerControl)p.getControl("javax.microedition.amms.control.audioeffect.EqualizerControl");
+			//without a control of its own, p follows the global one
+			if (e == null || e == equalizer) return true;
+			final int tot = Math.min(bands.length, e.getNumberOfBands());
+			for (int i = 0; i < tot; i++) {
+				e.setBandLevel(equalizer.getBandLevel(i), i);
+			}
+			e.setEnabled(equalizer.isEnabled());
+			//some devices accept the levels but ignore them
+			for (int i = 0; i < tot; i++) {
+				if (e.getBandLevel(i) != equalizer.getBandLevel(i)) {
+					reapplyFails = true;
+					return false;
+				}
+			}
+			return true;
+		} catch (Throwable ex) {
+			reapplyFails = true;
+			return false;
+		}
+	}
+	
+	private final void cancelPending() {
+		synchronized (pendingLevels) {
+			for (int i = 0; i < pendingLevels.length; i++) {
+				pendingLevels[i] = NoLevel;
+			}
+			gestureApplied = false;
+		}
+	}
+
 	private final void commitCustomChanges(int bandIndex) {
-		if (equalizer != null && preset != null && preset.isCustom) {
-			player.clearNext(); //clearNextAndWait();
-			
-			if (bandIndex < 0) {
-				final int tot = Math.min(bands.length, preset.bandsLevel.length);
-				for (int i = 0; i < tot; i++) {
-					equalizer.setBandLevel(preset.bandsLevel[i], i);
+		if (bandIndex >= 0 && bandIndex < bands.length && preset != null && preset.isCustom && isAlive()) {
+			//dragging a slider changes a band many times in a row, so the
+			//levels are applied in batches, at most every FlushMS
+			synchronized (pendingLevels) {
+				pendingLevels[bandIndex] = preset.bandsLevel[bandIndex];
+				if (flushThread == null) {
+					flushThread = new MessageThread(this, "Equalizer");
+					flushThread.startInterval(FlushMS);
 				}
-			} else if (bandIndex < bands.length) {
-				equalizer.setBandLevel(preset.bandsLevel[bandIndex], bandIndex);
 			}
-			
-			equalizer.setEnabled(true);
+			return;
+		}
+		synchronized (pendingLevels) {
+			//the whole preset replaces whatever was still pending
+			cancelPending();
+			if (software != null && preset != null && preset.isCustom) {
+				//the streams check the software equalizer before each block,
+				//so even the prepared next player follows the changes
+				if (bandIndex < 0) {
+					final int tot = Math.min(bands.length, preset.bandsLevel.length);
+					for (int i = 0; i < tot; i++) {
+						software.setBandLevel(preset.bandsLevel[i], i);
+					}
+				} else if (bandIndex < bands.length) {
+					software.setBandLevel(preset.bandsLevel[bandIndex], bandIndex);
+				}
+			} else if (equalizer != null && preset != null && preset.isCustom) {
+				if (bandIndex < 0) {
+					final int tot = Math.min(bands.length, preset.bandsLevel.length);
+					for (int i = 0; i < tot; i++) {
+						equalizer.setBandLevel(preset.bandsLevel[i], i);
+					}
+				} else if (bandIndex < bands.length) {
+					equalizer.setBandLevel(preset.bandsLevel[bandIndex], bandIndex);
+				}
+				
+				equalizer.setEnabled(true);
+				effectChanged();
+			}
 		}
 	}
 	
 	public final Preset getPreset() {
-		return ((equalizer != null) ? this.preset : null);
+		return (isAlive() ? this.preset : null);
 	}
 	
 	public final boolean setPreset(Preset preset) {
+		if (software != null && preset != null && preset != this.preset) {
+			synchronized (pendingLevels) {
+				this.preset = preset;
+				commitCustomChanges(-1);
+			}
+			return true;
+		}
 		if (equalizer != null && preset != null && preset != this.preset) {
-			player.clearNext(); //clearNextAndWait();
-			
-			if (!preset.isCustom) {
-				equalizer.setPreset(preset.name);
-			} else {
-				//equalizer.setEnabled(false);
-				final int tot = Math.min(bands.length, preset.bandsLevel.length);
-				for (int i = 0; i < tot; i++) {
-					equalizer.setBandLevel(preset.bandsLevel[i], i);
+			//the same lock flushPending holds while applying a gesture
+			synchronized (pendingLevels) {
+				cancelPending();
+				
+				if (!preset.isCustom) {
+					equalizer.setPreset(preset.name);
+				} else {
+					//equalizer.setEnabled(false);
+					final int tot = Math.min(bands.length, preset.bandsLevel.length);
+					for (int i = 0; i < tot; i++) {
+						equalizer.setBandLevel(preset.bandsLevel[i], i);
+					}
 				}
+				this.preset = preset;
+				
+				equalizer.setEnabled(true);
+				effectChanged();
 			}
-			this.preset = preset;
-			
-			equalizer.setEnabled(true);
 			
 			return true;
 		}
@@ -321,12 +497,18 @@ public final class Equalizer {
 	}
 	
 	public final boolean isEnabled() {
-		return ((equalizer != null) ? equalizer.isEnabled() : false);
+		return ((equalizer != null) ? equalizer.isEnabled() : ((software != null) ? software.isEnabled() : false));
 	}
 	
 	public final void setEnabled(boolean enabled) {
 		if (equalizer != null) {
 			equalizer.setEnabled(enabled);
+			effectChanged();
+		} else if (software != null && software.isEnabled() != enabled) {
+			software.setEnabled(enabled);
+			//only players created while the software equalizer is enabled
+			//have their samples filtered
+			if (enabled) player.clearNext();
 		}
 	}
 }
@@ -0,0 +1,190 @@
+//
+// HandoffScheduler.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/HandoffScheduler.java
+//
+
+package player;
+
+final class HandoffScheduler {
+	private static final int MaximumLeadMS = 250;
+	private static final int MinimumRate = 768; //0.75 in 1/1024 units
+	private static final int MaximumRate = 1331; //1.3 in 1/1024 units
+	private static final int GapCapacity = 32;
+	
+	private long sampleWall, endWall, stoppedAt, startedAt;
+	private int sampleMedia, rate, leadMS, transitionCount;
+	private boolean armed;
+	private final int[] gaps; //the last GapCapacity transitions, oldest first
+	private int firstGap, gapCount;
+	
+	public HandoffScheduler() {
+		this.rate = 1024;
+		this.gaps = new int[GapCapacity];
+	}
+	
+	public final void reset() {
+		//keep the learned lead time and the gaps, since they are
+		//properties of the device, not of the track, and keep the
+		//pending transition, as the player is stopped right before the
+		//next one is started when there is no prepared player
+		sampleWall = 0;
+		sampleMedia = 0;
+	}
+	
+	public final void restart() {
+		//called on pause and on resume: the wall clock kept running while
+		//the media time did not, so neither the last sample nor the end
+		//predicted from it can be used anymore
+		sampleWall = 0;
+		sampleMedia = 0;
+		endWall = 0;
+		armed = false;
+	}
+	
+	public final boolean isArmed() {
+		return armed;
+	}
+	
+	public final void sample(int mediaMS, int totalMS, long now) {
+		if (totalMS <= 0) {
+			armed = false;
+			return;
+		}
+		if (sampleWall != 0 && mediaMS > sampleMedia) {
+			//estimate how many wall clock milliseconds one media
+			//millisecond takes (some devices report a media time that
+			//drifts away from the real clock)
+			final long dw = now - sampleWall;
+			final int dm = mediaMS - sampleMedia;
+			if (dw > 0 && dm > 0) {
+				int r = (int)((dw << 10) / dm);
+				if (r < MinimumRate) r = MinimumRate;
+				else if (r > MaximumRate) r = MaximumRate;
+				rate = ((rate * 3) + r) >> 2;
+			}
+		}
+		sampleWall = now;
+		sampleMedia = mediaMS;
+		endWall = now + ((long)(totalMS - mediaMS) * rate >> 10);
+		armed = true;
+	}
+	
+	public final int getWakeDelay(long now, int advanceMS) {
+		//returns how long we can still sleep before starting the next
+		//player (0 means the next player must be started right now);
+		//advanceMS is how long before the end both players must overlap
+		if (!armed) return 0;
+		final long delay = endWall - advanceMS - leadMS - now;
+		return ((delay <= 0) ? 0 : (int)delay);
+	}
+	
+	public final void startLatency(int latencyMS) {
+		//starting the next player takes some time, so we must wake up
+		//that amount of time before the predicted end of the media
+		if (latencyMS < 0) latencyMS = 0;
+		else if (latencyMS > MaximumLeadMS) latencyMS = MaximumLeadMS;
+		leadMS = ((leadMS * 3) + latencyMS) >> 2;
+	}
+	
+	public final void ended(long now) {
+		//the current player reached the end of its media before the next
+		//one was started
+		stoppedAt = now;
+		startedAt = 0;
+	}
+	
+	public final void transitionStarted(long now) {
+		//the next player has just been started, either after the end of
+		//the previous one, or while it is still playing (in which case
+		//the gap is only known once it stops)
+		armed = false;
+		if (stoppedAt != 0) add((int)(now - stoppedAt));
+		else startedAt = now;
+	}
+	
+	public final void previousStopped(long now) {
+		//the previous player was stopped (or its ramp finished) after the
+		//next one had been started
+		if (startedAt != 0) add((int)(startedAt - now));
+	}
+	
+	public final void cancelTransition() {
+		//the user picked a song, so whatever was pending is not a gap
+		stoppedAt = 0;
+		startedAt = 0;
+	}
+	
+	private final synchronized void add(int gapMS) {
+		//positive values mean there was a gap between the tracks, while
+		//negative values mean the tracks overlapped
+		stoppedAt = 0;
+		startedAt = 0;
+		if (gapCount < GapCapacity) {
+			gaps[(firstGap + gapCount) % GapCapacity] = gapMS;
+			gapCount++;
+		} else {
+			gaps[firstGap] = gapMS;
+			firstGap = (firstGap + 1) % GapCapacity;
+		}
+		transitionCount++;
+	}
+	
+	public final synchronized int getGapPercentileMS(int percent) {
+		//among the last transitions (only meaningful if getGapCount() > 0)
+		final int[] ms = new int[gapCount];
+		for (int i = 0; i < gapCount; i++) {
+			//insertion sort, as there are only a few samples
+			final int v = gaps[(firstGap + i) % GapCapacity];
+			int j = i;
+			for (; j > 0 && ms[j - 1] > v; j--) {
+				ms[j] = ms[j - 1];
+			}
+			ms[j] = v;
+		}
+		return ((gapCount == 0) ? 0 : ms[((gapCount - 1) * percent) / 100]);
+	}
+	
+	public final synchronized int getLastGapMS() {
+		return ((gapCount == 0) ? 0 : gaps[(firstGap + gapCount - 1) % GapCapacity]);
+	}
+	
+	public final synchronized int getGapCount() {
+		return gapCount;
+	}
+	
+	public final int getLeadMS() {
+		return leadMS;
+	}
+	
+	public final int getTransitionCount() {
+		return transitionCount;
+	}
+}
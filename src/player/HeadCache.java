@@ -0,0 +1,140 @@
+//
+// HeadCache.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/HeadCache.java
+//
+
+package player;
+
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+final class HeadCache {
+	static final int HeadLength = 32 * 1024;
+	private static final int MaximumEntries = 4;
+	
+	private static final class Head {
+		final byte[] data;
+		final long size; //of the whole file, checked before its tail is read
+		
+		Head(byte[] data, long size) {
+			this.data = data;
+			this.size = size;
+		}
+	}
+	
+	//path -> Head, for the songs the user is most likely to pick next
+	private static final Hashtable heads = new Hashtable(MaximumEntries);
+	private static final Vector used = new Vector(MaximumEntries); //least recently used first
+	private static int bytes, hits, loads;
+	
+	private HeadCache() {
+	}
+	
+	static InputStream openStream(Song song) {
+		final Head h;
+		synchronized (HeadCache.class) {
+			h = (Head)heads.get(song.getFileName());
+			if (h == null) return null;
+			used.removeElement(song.getFileName());
+			used.addElement(song.getFileName());
+			hits++;
+		}
+		return new HeadInputStream(song, h.data, h.size);
+	}
+	
+	static void preload(Song song, int budget) {
+		if (song == null || budget < HeadLength) return;
+		synchronized (HeadCache.class) {
+			if (heads.containsKey(song.getFileName())) {
+				used.removeElement(song.getFileName());
+				used.addElement(song.getFileName());
+				return;
+			}
+		}
+		//the file is read without holding the lock, so a player being
+		//opened from another head is not kept waiting
+		javax.microedition.io.file.FileConnection fc = null;
+		InputStream in = null;
+		final byte[] data;
+		final long size;
+		try {
+			fc = URLResolver.openFile(song);
+			size = fc.fileSize();
+			if (size <= 0) return;
+			in = fc.openInputStream();
+			data = new byte[(int)Math.min(HeadLength, size)];
+			if (!TagReader.readFully(in, data, 0, data.length)) return;
+		} catch (Throwable ex) {
+			return;
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (Throwable ex) {
+			}
+			try {
+				if (fc != null) fc.close();
+			} catch (Throwable ex) {
+			}
+		}
+		synchronized (HeadCache.class) {
+			if (heads.containsKey(song.getFileName())) return;
+			while (used.size() > 0 && (used.size() >= MaximumEntries || bytes + data.length > budget)) {
+				final Head h = (Head)heads.remove(used.elementAt(0));
+				used.removeElementAt(0);
+				bytes -= h.data.length;
+			}
+			if (bytes + data.length > budget) return;
+			heads.put(song.getFileName(), new Head(data, size));
+			used.addElement(song.getFileName());
+			bytes += data.length;
+			loads++;
+		}
+	}
+	
+	static synchronized void clear() {
+		heads.clear();
+		used.removeAllElements();
+		bytes = 0;
+	}
+	
+	static synchronized int getByteCount() {
+		return bytes;
+	}
+	
+	static synchronized int getHitCount() {
+		return hits;
+	}
+	
+	static synchronized int getLoadCount() {
+		return loads;
+	}
+}
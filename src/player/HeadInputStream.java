@@ -0,0 +1,114 @@
+//
+// HeadInputStream.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/HeadInputStream.java
+//
+
+package player;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+final class HeadInputStream extends InputStream {
+	private final Song song;
+	private final byte[] head;
+	private final long size;
+	private final byte[] single;
+	private int pos;
+	private javax.microedition.io.file.FileConnection fc;
+	private InputStream tail;
+	
+	public HeadInputStream(Song song, byte[] head, long size) {
+		//MMAPI starts decoding from the bytes already in memory, and the
+		//file itself is only opened once they are over
+		this.song = song;
+		this.head = head;
+		this.size = size;
+		this.single = new byte[1];
+	}
+	
+	private final void openTail() throws IOException {
+		try {
+			fc = URLResolver.openFile(song);
+			if (fc.fileSize() != size) throw new IOException("Arquivo alterado");
+			tail = fc.openInputStream();
+			if (!TagReader.skipFully(tail, head.length)) throw new IOException("Arquivo alterado");
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		} catch (Exception ex) {
+			close();
+			throw new IOException(ex.getMessage());
+		}
+	}
+	
+	public final int read(byte[] b, int off, int len) throws IOException {
+		if (len <= 0) return 0;
+		if (pos < head.length) {
+			if (len > head.length - pos) len = head.length - pos;
+			System.arraycopy(head, pos, b, off, len);
+			pos += len;
+			return len;
+		}
+		if (head.length >= size) return -1;
+		if (tail == null) openTail();
+		return tail.read(b, off, len);
+	}
+	
+	public final int read() throws IOException {
+		return ((read(single, 0, 1) <= 0) ? -1 : (single[0] & 0xFF));
+	}
+	
+	public final long skip(long n) throws IOException {
+		if (n <= 0) return 0;
+		if (pos < head.length) {
+			final int k = (int)Math.min(n, head.length - pos);
+			pos += k;
+			return k;
+		}
+		if (head.length >= size) return 0;
+		if (tail == null) openTail();
+		return tail.skip(n);
+	}
+	
+	public final int available() throws IOException {
+		return ((pos < head.length) ? (head.length - pos) : ((tail == null) ? 0 : tail.available()));
+	}
+	
+	public final void close() throws IOException {
+		try {
+			if (tail != null) tail.close();
+		} finally {
+			tail = null;
+			if (fc != null) fc.close();
+			fc = null;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+//
+// LatencyTrace.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/LatencyTrace.java
+//
+
+package player;
+
+final class LatencyTrace {
+	//phases of a start, in the order they happen (the ones that are
+	//skipped, like creating a player that was prepared in advance, stay 0)
+	public static final int ENQUEUED = 0;
+	public static final int DEQUEUED = 1;
+	public static final int CREATED = 2;
+	public static final int REALIZED = 3;
+	public static final int PREFETCHED = 4;
+	public static final int STARTED = 5;
+	public static final int AUDIBLE = 6;
+	public static final int PhaseCount = 7;
+	public static final String[] PhaseNames = { "enqueued", "dequeued", "created", "realized", "prefetched", "started", "audible" };
+	
+	private static final int Capacity = 32;
+	private static final int AudibleTimeoutMS = 5000;
+	
+	private final long[] samples; //Capacity rows of PhaseCount timestamps
+	private final boolean[] automatic;
+	private final long[] open;
+	private boolean openAutomatic, active;
+	private long openMediaUS;
+	private int first, count;
+	
+	public LatencyTrace() {
+		samples = new long[Capacity * PhaseCount];
+		automatic = new boolean[Capacity];
+		open = new long[PhaseCount];
+	}
+	
+	public final void begin(long enqueuedAt, boolean automatic) {
+		for (int i = PhaseCount - 1; i >= 0; i--) {
+			open[i] = 0;
+		}
+		open[ENQUEUED] = enqueuedAt;
+		open[DEQUEUED] = System.currentTimeMillis();
+		openAutomatic = automatic;
+		active = true;
+	}
+	
+	public final void mark(int phase) {
+		if (active) open[phase] = System.currentTimeMillis();
+	}
+	
+	public final void cancel() {
+		active = false;
+	}
+	
+	public final void started(long mediaUS) {
+		//the media time at which the player started, so the first advance
+		//past it can be told apart
+		if (active) {
+			if (open[STARTED] == 0) open[STARTED] = System.currentTimeMillis();
+			openMediaUS = mediaUS;
+		}
+	}
+	
+	public final boolean isWaitingAudible() {
+		return (active && open[STARTED] != 0);
+	}
+	
+	public final void sample(long mediaUS) {
+		if (!active) return;
+		final long now = System.currentTimeMillis();
+		if (mediaUS > openMediaUS) {
+			open[AUDIBLE] = now;
+			commit();
+		} else if ((int)(now - open[STARTED]) > AudibleTimeoutMS) {
+			//the media time of some devices never moves, so stop waiting
+			active = false;
+		}
+	}
+	
+	private final synchronized void commit() {
+		active = false;
+		int row = first + count;
+		if (count == Capacity) {
+			//overwrite the oldest one
+			row = first;
+			first = (first + 1) % Capacity;
+		} else {
+			count++;
+		}
+		row %= Capacity;
+		System.arraycopy(open, 0, samples, row * PhaseCount, PhaseCount);
+		automatic[row] = openAutomatic;
+	}
+	
+	public final synchronized int getCount(boolean automatic) {
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (this.automatic[(first + i) % Capacity] == automatic) n++;
+		}
+		return n;
+	}
+	
+	public final synchronized int getPercentileMS(int phase, int percent, boolean automatic) {
+		//time between the request (or the end of the previous song) and
+		//the phase, among the samples that went through it (-1 = none)
+		final int[] ms = new int[count];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			final int row = (first + i) % Capacity;
+			if (this.automatic[row] != automatic) continue;
+			final long t = samples[(row * PhaseCount) + phase];
+			if (t == 0) continue;
+			//insertion sort, as there are only a few samples
+			final int v = (int)(t - samples[row * PhaseCount]);
+			int j = n;
+			for (; j > 0 && ms[j - 1] > v; j--) {
+				ms[j] = ms[j - 1];
+			}
+			ms[j] = v;
+			n++;
+		}
+		if (n == 0) return -1;
+		return ms[((n - 1) * percent) / 100];
+	}
+	
+	public final synchronized String export() {
+		//one line per start, with the time of each phase relative to the
+		//request (empty when skipped)
+		final StringBuffer sb = new StringBuffer(64 + (count * 48));
+		sb.append("automatic");
+		for (int p = 0; p < PhaseCount; p++) {
+			sb.append(',');
+			sb.append(PhaseNames[p]);
+		}
+		sb.append("\r\n");
+		for (int i = 0; i < count; i++) {
+			final int row = (first + i) % Capacity;
+			final int base = row * PhaseCount;
+			sb.append(automatic[row] ? '1' : '0');
+			for (int p = 0; p < PhaseCount; p++) {
+				sb.append(',');
+				if (samples[base + p] != 0) sb.append(samples[base + p] - samples[base]);
+			}
+			sb.append("\r\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,255 @@
+//
+// LoudnessAnalyzer.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/LoudnessAnalyzer.java
+//
+
+package player;
+
+import java.io.InputStream;
+
+public final class LoudnessAnalyzer implements Runnable {
+	private static final int BlockLength = 8192;
+	private static final int BlockCount = 24;
+	private static final int ThrottleMS = 30;
+	private static final int SongPauseMS = 500;
+	private static final int TargetRMS = -160; //tenths of dBFS
+	private static final int MaximumGain = 120; //tenths of dB
+	private static final int Skipped = Integer.MIN_VALUE + 1; //cannot be decoded here
+	private static final int[] Log2Fraction = { 0, 22, 44, 63, 82, 100, 118, 134, 150, 165, 179, 193, 207, 220, 232, 244, 256 }; //log2(1 + i/16), in 1/256 units
+	
+	private static int skipped; //songs the last complete pass could not decode
+	
+	private final Song[] songs;
+	private final LoudnessListener listener;
+	private int cursor;
+	private boolean alive;
+	
+	public LoudnessAnalyzer(Song[] songs, int cursor, LoudnessListener listener) {
+		this.songs = songs;
+		this.cursor = ((cursor < 0 || cursor >= songs.length) ? 0 : cursor);
+		this.listener = listener;
+	}
+	
+	public final void start() {
+		alive = true;
+		final Thread thread = new Thread(this, "Loudness Analyzer");
+		//playback must always come first
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+	
+	public final void stop() {
+		alive = false;
+	}
+	
+	public final boolean isAlive() {
+		return alive;
+	}
+	
+	public static int getSkippedCount() {
+		return skipped;
+	}
+	
+	public final int getCursor() {
+		//where to resume the next time (songs already analyzed are
+		//skipped anyway, but this avoids going through them again)
+		return cursor;
+	}
+	
+	private static void sleep(int ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (Throwable ex) {
+		}
+	}
+	
+	private static int log2(long x) {
+		//fixed-point log2(x), in 1/256 units (x > 0), using the position
+		//of the highest bit plus a linear interpolation of the next 8 bits
+		int e = 63;
+		while (e > 0 && (x >>> e) == 0) e--;
+		final int m = (int)((e >= 8) ? ((x >>> (e - 8)) & 0xFF) : ((x << (8 - e)) & 0xFF));
+		final int i = m >> 4;
+		final int f = m & 0xF;
+		return (e << 8) + Log2Fraction[i] + (((Log2Fraction[i + 1] - Log2Fraction[i]) * f) >> 4);
+	}
+	
+	private static int readLE(byte[] b, int offset, int length) {
+		int x = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			x = (x << 8) | (b[offset + i] & 0xFF);
+		}
+		return x;
+	}
+	
+	private static boolean readFully(InputStream in, byte[] b, int length) throws Exception {
+		int offset = 0;
+		while (offset < length) {
+			final int n = in.read(b, offset, length - offset);
+			if (n < 0) return false;
+			offset += n;
+		}
+		return true;
+	}
+	
+	private static boolean skipFully(InputStream in, long count) throws Exception {
+		while (count > 0) {
+			final long n = in.skip(count);
+			if (n <= 0) {
+				if (in.read() < 0) return false;
+				count--;
+			} else {
+				count -= n;
+			}
+		}
+		return true;
+	}
+	
+	private final int analyze(Song song, byte[] block) {
+		//returns the gain, in tenths of dB, that brings the song to the
+		//target RMS level without clipping its peaks (Skipped for files
+		//that cannot be decoded here, or GAIN_UNKNOWN if the analysis
+		//must be tried again later)
+		if (!EqualizedInputStream.isSupported(song.getFileName())) {
+			//compressed formats would need a decoder, which MMAPI
+			//does not expose
+			return Skipped;
+		}
+		javax.microedition.io.file.FileConnection fc = null;
+		InputStream in = null;
+		try {
+			fc = URLResolver.openFile(song);
+			in = fc.openInputStream();
+			
+			//find the format and the data chunk
+			if (!readFully(in, block, 12) ||
+				block[0] != 'R' || block[1] != 'I' || block[2] != 'F' || block[3] != 'F' ||
+				block[8] != 'W' || block[9] != 'A' || block[10] != 'V' || block[11] != 'E')
+				return Skipped;
+			int format = 0, bits = 0, dataLength;
+			for (; ; ) {
+				if (!readFully(in, block, 8)) return Skipped;
+				final int size = readLE(block, 4, 4);
+				if (block[0] == 'd' && block[1] == 'a' && block[2] == 't' && block[3] == 'a') {
+					dataLength = size;
+					break;
+				}
+				if (size < 0) return Skipped;
+				if (block[0] == 'f' && block[1] == 'm' && block[2] == 't' && block[3] == ' ' && size >= 16 && size <= block.length) {
+					if (!readFully(in, block, size + (size & 1))) return Skipped;
+					format = readLE(block, 0, 2);
+					bits = readLE(block, 14, 2);
+				} else if (!skipFully(in, size + (size & 1))) {
+					return Skipped;
+				}
+			}
+			if (format != 1 || bits != 16 || dataLength <= 0) return Skipped;
+			
+			//instead of reading the whole file, take blocks evenly spread
+			//over it (sleeping between them, to leave the card to the player)
+			final int gap = Math.max(0, (dataLength / BlockCount) - BlockLength) & ~3;
+			long sumSq = 0;
+			int count = 0, peak = 1;
+			for (int b = 0; b < BlockCount && dataLength > 0; b++) {
+				if (!alive) return Song.GAIN_UNKNOWN;
+				final int len = Math.min(BlockLength, dataLength) & ~1;
+				if (len <= 0 || !readFully(in, block, len)) break;
+				dataLength -= len;
+				long blockSq = 0;
+				for (int i = 0; i < len; i += 2) {
+					int v = (short)((block[i] & 0xFF) | (block[i + 1] << 8));
+					if (v < 0) v = -v;
+					if (v > peak) peak = v;
+					blockSq += v * v;
+				}
+				sumSq += blockSq;
+				count += (len >> 1);
+				if (gap > 0) {
+					if (dataLength <= gap || !skipFully(in, gap)) break;
+					dataLength -= gap;
+				}
+				sleep(ThrottleMS);
+			}
+			if (count <= 0) return Skipped;
+			
+			//10 * 10 * log10(x / 2^30) = 30.103 * log2(x) - 903.09
+			final long meanSq = sumSq / count;
+			final int rms = (meanSq <= 0) ? -960 : (((log2(meanSq) * 30103) / 256000) - 903);
+			//10 * 20 * log10(peak / 2^15) = 60.206 * log2(peak) - 903.09
+			final int peakLevel = ((log2(peak) * 60206) / 256000) - 903;
+			int gain = TargetRMS - rms;
+			if (gain > -peakLevel) gain = -peakLevel;
+			if (gain > MaximumGain) gain = MaximumGain;
+			else if (gain < -MaximumGain) gain = -MaximumGain;
+			return gain;
+		} catch (Throwable ex) {
+			return Song.GAIN_UNKNOWN;
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (Throwable ex) {
+			}
+			try {
+				if (fc != null) fc.close();
+			} catch (Throwable ex) {
+			}
+		}
+	}
+	
+	public final void run() {
+		final byte[] block = new byte[BlockLength];
+		int skippedNow = 0;
+		for (int n = 0; n < songs.length && alive; n++) {
+			if (cursor >= songs.length) cursor = 0;
+			final Song song = songs[cursor];
+			if (song != null && !song.hasGain()) {
+				final int gain = analyze(song, block);
+				if (!alive) break;
+				if (gain == Skipped) {
+					//the song keeps GAIN_UNKNOWN (and plays at 0 dB), so
+					//a decoder added later can still analyze it
+					skippedNow++;
+				} else if (gain != Song.GAIN_UNKNOWN) {
+					song.setGain(gain);
+					listener.gainAnalyzed(song);
+				}
+				//the formats that are not even tried left the card alone
+				if (EqualizedInputStream.isSupported(song.getFileName())) sleep(SongPauseMS);
+			}
+			cursor++;
+		}
+		if (alive) {
+			skipped = skippedNow;
+			alive = false;
+			listener.analysisFinished(this);
+		}
+	}
+}
@@ -0,0 +1,255 @@
+//
+// MetadataCache.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/MetadataCache.java
+//
+
+package player;
+
+import baseIO.ByteInStream;
+import baseIO.ByteOutStream;
+import baseIO.File;
+import baseIO.FileEnumerationListener;
+import baseUtil.Sortable;
+import baseUtil.Vector;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+public final class MetadataCache {
+	private static final String FileName = "metaCache";
+	private static final int ByteBudget = 65536;
+	private static final int EntryOverhead = 48;
+	
+	private static final class Entry implements Sortable {
+		String path, title, artist, author;
+		long size, lastModified;
+		int durationMS, gain, used;
+		
+		final int bytes() {
+			//rough estimate of how much room this entry takes in RMS
+			return EntryOverhead + ((path.length() +
+				((title == null) ? 0 : title.length()) +
+				((artist == null) ? 0 : artist.length()) +
+				((author == null) ? 0 : author.length())) << 1);
+		}
+		
+		public final int compare(Sortable item) {
+			return used - ((Entry)item).used;
+		}
+	}
+	
+	private static Hashtable entries;
+	private static int bytes, clock, lookups, hits, staleHits;
+	private static boolean dirty;
+	
+	private MetadataCache() {
+	}
+	
+	private static void ensureLoaded() {
+		if (entries != null) return;
+		entries = new Hashtable(64);
+		final File file = new File(FileName, false);
+		if (file.openExisting()) {
+			//the records are saved from the least to the most recently used
+			file.enumerateRecords(new FileEnumerationListener() {
+				public boolean recordEnumerated(ByteInStream stream) {
+					final Entry e = new Entry();
+					e.path = stream.readString();
+					e.size = stream.readLong();
+					e.lastModified = stream.readLong();
+					e.title = nullIfEmpty(stream.readString());
+					e.artist = nullIfEmpty(stream.readString());
+					e.author = nullIfEmpty(stream.readString());
+					e.durationMS = stream.readInt();
+					e.gain = stream.readInt();
+					e.used = ++clock;
+					entries.put(e.path, e);
+					bytes += e.bytes();
+					return true;
+				}
+			});
+		}
+		file.close();
+	}
+	
+	private static String nullIfEmpty(String s) {
+		return ((s == null || s.length() == 0) ? null : s);
+	}
+	
+	private static void evict() {
+		if (bytes <= ByteBudget) return;
+		//evict down to 3/4 of the budget at once, so a whole folder being
+		//added does not cause one sort per new song
+		final Vector v = new Vector(entries.size());
+		for (Enumeration en = entries.elements(); en.hasMoreElements(); )
+			v.addElement(en.nextElement());
+		v.sort();
+		for (int i = 0; i < v.size() && bytes > ((ByteBudget * 3) >> 2); i++) {
+			final Entry e = (Entry)v.elementAt(i);
+			entries.remove(e.path);
+			bytes -= e.bytes();
+		}
+		dirty = true;
+	}
+	
+	static synchronized TagReader lookup(Song song, boolean validate) {
+		//when validate is false the entry is trusted without touching the
+		//file at all, which is what makes adding a whole folder cheap
+		ensureLoaded();
+		lookups++;
+		final Entry e = (Entry)entries.get(song.getFileName());
+		if (e == null) return null;
+		if (validate) {
+			final long[] stat = TagReader.stat(song);
+			if (stat == null || stat[0] != e.size || stat[1] != e.lastModified) {
+				entries.remove(e.path);
+				bytes -= e.bytes();
+				dirty = true;
+				staleHits++;
+				return null;
+			}
+		}
+		hits++;
+		e.used = ++clock;
+		final TagReader tags = new TagReader();
+		tags.title = e.title;
+		tags.artist = e.artist;
+		tags.author = e.author;
+		tags.size = e.size;
+		tags.lastModified = e.lastModified;
+		tags.durationMS = e.durationMS;
+		tags.gain = e.gain;
+		return tags;
+	}
+	
+	static synchronized void put(Song song, TagReader tags) {
+		//tags == null is also cached, so files that cannot be read are
+		//not opened again every time they are added
+		long[] stat = null;
+		if (tags != null && tags.size >= 0) {
+			stat = new long[] { tags.size, tags.lastModified };
+		} else {
+			stat = TagReader.stat(song);
+			if (stat == null) return;
+		}
+		ensureLoaded();
+		Entry e = (Entry)entries.remove(song.getFileName());
+		if (e != null) bytes -= e.bytes();
+		e = new Entry();
+		e.path = song.getFileName();
+		e.size = stat[0];
+		e.lastModified = stat[1];
+		if (tags != null) {
+			e.title = tags.title;
+			e.artist = tags.artist;
+			e.author = tags.author;
+		}
+		e.durationMS = ((tags != null && tags.durationMS >= 0) ? tags.durationMS : song.getDurationMS());
+		e.gain = (song.hasGain() ? song.getGain() : Song.GAIN_UNKNOWN);
+		e.used = ++clock;
+		entries.put(e.path, e);
+		bytes += e.bytes();
+		dirty = true;
+		evict();
+	}
+	
+	static synchronized void putGain(Song song, int gain) {
+		ensureLoaded();
+		final Entry e = (Entry)entries.get(song.getFileName());
+		if (e != null && e.gain != gain) {
+			e.gain = gain;
+			dirty = true;
+		}
+	}
+	
+	static synchronized void putDuration(Song song, int durationMS) {
+		ensureLoaded();
+		final Entry e = (Entry)entries.get(song.getFileName());
+		if (e != null && e.durationMS != durationMS) {
+			e.durationMS = durationMS;
+			dirty = true;
+		}
+	}
+	
+	public static synchronized boolean save() {
+		if (entries == null || !dirty) return true;
+		final File file = new File(FileName, false);
+		if (!file.openTruncate()) {
+			file.close();
+			return false;
+		}
+		final Vector v = new Vector(entries.size());
+		for (Enumeration en = entries.elements(); en.hasMoreElements(); )
+			v.addElement(en.nextElement());
+		v.sort();
+		final ByteOutStream outp = new ByteOutStream(128);
+		for (int i = 0; i < v.size(); i++) {
+			final Entry e = (Entry)v.elementAt(i);
+			outp.reset();
+			outp.writeString(e.path);
+			outp.writeLong(e.size);
+			outp.writeLong(e.lastModified);
+			outp.writeString(e.title);
+			outp.writeString(e.artist);
+			outp.writeString(e.author);
+			outp.writeInt(e.durationMS);
+			outp.writeInt(e.gain);
+			file.addRecord(outp);
+		}
+		file.close();
+		dirty = false;
+		return true;
+	}
+	
+	public static synchronized int getEntryCount() {
+		return ((entries == null) ? 0 : entries.size());
+	}
+	
+	public static int getByteCount() {
+		return bytes;
+	}
+	
+	public static int getLookupCount() {
+		return lookups;
+	}
+	
+	public static int getHitCount() {
+		return hits;
+	}
+	
+	public static int getStaleCount() {
+		return staleHits;
+	}
+	
+	public static int getHitRate() {
+		//percentage, 0 when nothing has been looked up yet
+		return ((lookups == 0) ? 0 : ((hits * 100) / lookups));
+	}
+}
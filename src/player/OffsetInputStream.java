@@ -0,0 +1,74 @@
+//
+// OffsetInputStream.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/OffsetInputStream.java
+//
+
+package player;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+final class OffsetInputStream extends InputStream {
+	private final InputStream in;
+	private final javax.microedition.io.Connection connection;
+	
+	public OffsetInputStream(InputStream in, javax.microedition.io.Connection connection, long offset) throws Exception {
+		//MMAPI sees the file as if it started at offset (at a frame
+		//boundary), so it never has to seek by itself
+		this.in = in;
+		this.connection = connection;
+		if (!TagReader.skipFully(in, offset)) throw new IOException("Posição inválida");
+	}
+	
+	public final int read(byte[] b, int off, int len) throws IOException {
+		return in.read(b, off, len);
+	}
+	
+	public final int read() throws IOException {
+		return in.read();
+	}
+	
+	public final long skip(long n) throws IOException {
+		return in.skip(n);
+	}
+	
+	public final int available() throws IOException {
+		return in.available();
+	}
+	
+	public final void close() throws IOException {
+		try {
+			in.close();
+		} finally {
+			if (connection != null) connection.close();
+		}
+	}
+}
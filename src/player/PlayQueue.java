@@ -0,0 +1,145 @@
+//
+// PlayQueue.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/PlayQueue.java
+//
+
+package player;
+
+import baseIO.ByteInStream;
+import baseIO.ByteOutStream;
+import baseIO.File;
+import baseIO.FileEnumerationListener;
+
+final class PlayQueue {
+	private static final String FileName = "playQueue";
+	private static final int MaximumSongs = 256;
+	
+	//ring buffer: the song to be played first is at songs[head]
+	private Song[] songs;
+	private int head, count;
+	private boolean dirty;
+	
+	PlayQueue() {
+		songs = new Song[8];
+	}
+	
+	private final void grow() {
+		final Song[] s = new Song[songs.length << 1];
+		final int first = songs.length - head;
+		if (first >= count) {
+			System.arraycopy(songs, head, s, 0, count);
+		} else {
+			System.arraycopy(songs, head, s, 0, first);
+			System.arraycopy(songs, 0, s, first, count - first);
+		}
+		songs = s;
+		head = 0;
+	}
+	
+	final synchronized boolean enqueue(Song song) {
+		if (song == null || count >= MaximumSongs) return false;
+		if (count == songs.length) grow();
+		songs[(head + count) & (songs.length - 1)] = song;
+		count++;
+		dirty = true;
+		return true;
+	}
+	
+	final synchronized Song dequeue() {
+		if (count == 0) return null;
+		final Song song = songs[head];
+		songs[head] = null;
+		head = (head + 1) & (songs.length - 1);
+		count--;
+		dirty = true;
+		return song;
+	}
+	
+	final synchronized Song peek(int index) {
+		//index 0 is the song dequeue() would return
+		if (index < 0 || index >= count) return null;
+		return songs[(head + index) & (songs.length - 1)];
+	}
+	
+	final synchronized int size() {
+		return count;
+	}
+	
+	final synchronized void clear() {
+		for (int i = songs.length - 1; i >= 0; i--) {
+			songs[i] = null;
+		}
+		head = 0;
+		if (count != 0) dirty = true;
+		count = 0;
+	}
+	
+	final synchronized void load() {
+		clear();
+		final File file = new File(FileName, false);
+		if (file.openExisting()) {
+			//records are not enumerated in any particular order, so each
+			//one carries its place in the queue
+			final Song[] loaded = new Song[MaximumSongs];
+			file.enumerateRecords(new FileEnumerationListener() {
+				public boolean recordEnumerated(ByteInStream stream) {
+					final int i = stream.readInt();
+					if (i >= 0 && i < MaximumSongs) loaded[i] = Song.deserialize(stream);
+					return true;
+				}
+			});
+			for (int i = 0; i < MaximumSongs; i++) {
+				if (loaded[i] != null) enqueue(loaded[i]);
+			}
+		}
+		file.close();
+		dirty = false;
+	}
+	
+	final synchronized boolean save() {
+		if (!dirty) return true;
+		final File file = new File(FileName, false);
+		if (!file.openTruncate()) {
+			file.close();
+			return false;
+		}
+		final ByteOutStream outp = new ByteOutStream(64);
+		for (int i = 0; i < count; i++) {
+			outp.reset();
+			outp.writeInt(i);
+			songs[(head + i) & (songs.length - 1)].serialize(outp);
+			file.addRecord(outp);
+		}
+		file.close();
+		dirty = false;
+		return true;
+	}
+}
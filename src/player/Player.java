@@ -43,24 +43,60 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 	//private static final int[] VolumeLevels = { 0, 5, 15, 25, 35, 45, 55, 65, 75, 85, 100 };
 	
 	private static final int VolumeGranularity = 5;
+	private static final int HandoffWindowMS = 400;
+	private static final int TickMS = 100;
+	private static final int CoarseTickMS = 1000;
+	private static final int FrameMS = 50; //changes closer than this reach the listener together
+	private static final int AudibleTickMS = 20; //resolution of the first media time advance after a start
+	private static final int PrefetchLeadMS = 20000; //a deferred next song is prepared at least this long before the end
+	private static final int PreloadDelayMS = 1000; //the heads are read once the selection rests this long
+	private static final int HeadBudget = 4 * HeadCache.HeadLength;
+	private static final int PressureRetryMS = 10000;
 	private static final int MinimumVolume = 0;
 	private static final int MaximumVolume = 100;
 	private static final String[] SupportedFormats;
+	//2 ^ (dB / 10) in 1/1024 units, from -12 dB to +12 dB, as the perceived
+	//loudness (which VolumeControl levels follow) doubles every 10 dB
+	private static final int[] GainFactors = { 446, 478, 512, 549, 588, 630, 676, 724, 776, 832, 891, 955, 1024, 1097, 1176, 1261, 1351, 1448, 1552, 1663, 1783, 1911, 2048, 2195, 2353 };
 	
-	private VolumeControl ctrlVol, ctrlVolNext;
-	private javax.microedition.media.Player mplayer, mplayerNext, mplayerLostDevice;
+	private VolumeControl ctrlVol, ctrlVolNext, ctrlVolFading;
+	private javax.microedition.media.Player mplayer, mplayerNext, mplayerFading, mplayerLostDevice;
 	private int timeTrackMS;
 	private int timeSec;
-	private Song currentSong, nextSong; //song currently being played (or null if none)
+	private int waitMS;
+	private int wakeups, wakeupsPerMinute;
+	private long wakeupsStart;
+	private Song currentSong, nextSong, fadingSong; //song currently being played (or null if none)
 	
 	private PlayerListener listener;
 	private int volume; //0 to 10 (0 = mute)
+	private int targetVolume; //volume after all pending actions have been executed
 	private boolean paused, radioMode, radioStereo, reloadTime, resetVolume;
 	private String totalTime;
 	private int totalTimeMS;
 	private boolean playAfterRecovery;
 	private boolean alive;
-	private final Vector actionsPeding;
+	private final PlayerActionQueue actionsPeding;
+	private final HandoffScheduler handoff;
+	private final LatencyTrace trace;
+	private Equalizer equalizer;
+	private volatile int effectGeneration; //incremented whenever the equalizer changes
+	private int nextEffectGeneration; //effectGeneration when mplayerNext was created (-1 = unknown)
+	private volatile PlayerState state; //what the ui paints, replaced only by the Actions thread
+	private int pendingChanges;
+	private long notifiedAt;
+	private final PrefetchPipeline pipeline;
+	private final CrossfadeRamp fade;
+	private final PrefetchGovernor governor;
+	private final PlayQueue queue;
+	private SoftwareEqualizer softwareEqualizer;
+	private Throwable createFailure; //why the last playerCreate_ could not even realize the player
+	private int prefetchAtMS; //media time at which the next song will be prepared (-1 = not scheduled)
+	private int mediaOffsetMS; //where the current player starts, when it was opened past the beginning of the file
+	private int targetSeekMS; //position the pending SEEK is heading to (-1 = none)
+	private boolean prefetchRetry; //prepareNext_ was rescheduled after a SKIP
+	private long preloadAt; //time at which the heads of the likely songs will be read (0 = not scheduled)
+	private final int[] startupCount, startupMS, startupBusyMS; //[0] = prepared right away, [1] = deferred
 	
 	static {
 		final Vector fmts = new Vector(16);
@@ -119,7 +155,22 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 	}
 	
 	public Player(int volume, int lasttime, Song currentSong, PlayerListener listener, boolean radioMode, boolean radioStereo) {
-		this.actionsPeding = new Vector(4, 1);
+		this.actionsPeding = new PlayerActionQueue();
+		this.handoff = new HandoffScheduler();
+		this.trace = new LatencyTrace();
+		this.pipeline = new PrefetchPipeline();
+		this.fade = new CrossfadeRamp();
+		this.governor = new PrefetchGovernor();
+		this.queue = new PlayQueue();
+		this.queue.load();
+		this.prefetchAtMS = -1;
+		this.targetSeekMS = -1;
+		this.startupCount = new int[2];
+		this.startupMS = new int[2];
+		this.startupBusyMS = new int[2];
+		this.waitMS = TickMS;
+		this.wakeupsPerMinute = -1;
+		this.wakeupsStart = System.currentTimeMillis();
 		this.alive = true;
 		this.timeTrackMS = lasttime;
 		
@@ -128,9 +179,11 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		
 		this.currentSong = currentSong;
 		this.volume = ((volume > MaximumVolume) ? MaximumVolume : ((volume < MinimumVolume) ? MinimumVolume : volume));
+		this.targetVolume = this.volume;
 		this.radioMode = radioMode;
 		//this.resetVolume = !radioMode;
 		this.radioStereo = radioStereo;
+		this.state = new PlayerState(currentSong, PlayerState.STOPPED, 0, "", this.volume);
 		setListener(listener);
 		
 		(new Thread(this, "Actions")).start();
@@ -216,6 +269,43 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		}
 	}
 	
+	public final PlayerState getState() {
+		//the fields below change while the ui is reading them, so
+		//everything painted together must come from the same snapshot
+		return state;
+	}
+	
+	private final void publish_() {
+		//a new snapshot is only created when something visible changes
+		final int status = ((mplayer == null) ? PlayerState.STOPPED : (paused ? PlayerState.PAUSED : (radioMode ? PlayerState.RECEIVING : PlayerState.PLAYING)));
+		final int ts = ((status == PlayerState.PLAYING) ? timeSec : 0);
+		final String length = ((status == PlayerState.PLAYING) ? totalTime : "");
+		final int changes = state.diff(currentSong, status, ts, length, volume);
+		if (changes == 0) return;
+		state = new PlayerState(currentSong, status, ts, length, volume);
+		pendingChanges |= changes;
+	}
+	
+	private final void notify_() {
+		//the first change goes out right away, and the ones that follow
+		//it within the same frame (holding the volume keys, skipping
+		//several songs) are merged into a single notification
+		if (pendingChanges == 0) return;
+		final long now = System.currentTimeMillis();
+		if ((int)(now - notifiedAt) < FrameMS) return;
+		final int changes = pendingChanges;
+		pendingChanges = 0;
+		notifiedAt = now;
+		listener.stateChanged(changes);
+	}
+	
+	private final int notifyDelayMS_(int waitMS) {
+		//do not sleep past the end of the frame with changes pending
+		if (pendingChanges == 0) return waitMS;
+		final int ms = FrameMS - (int)(System.currentTimeMillis() - notifiedAt);
+		return ((ms <= 0) ? 1 : ((ms < waitMS) ? ms : waitMS));
+	}
+	
 	public final Song getCurrentSong() {
 		return currentSong;
 	}
@@ -240,9 +330,99 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		return totalTime;
 	}
 	
+	public final int getLastTransitionGapMS() {
+		return handoff.getLastGapMS();
+	}
+	
+	public final int getTransitionGapPercentileMS(int percent) {
+		return handoff.getGapPercentileMS(percent);
+	}
+	
+	public final int getTransitionCount() {
+		return handoff.getTransitionCount();
+	}
+	
+	public final int getHandoffLeadMS() {
+		return handoff.getLeadMS();
+	}
+	
+	public final int getPrefetchDecisionCount(int decision) {
+		//0 = skipped, 1 = only realized, 2 = prefetched
+		return governor.getDecisionCount(decision);
+	}
+	
+	public final int getPrefetchReleaseCount() {
+		return governor.getReleaseCount();
+	}
+	
+	public final int getStartupCount(boolean deferred) {
+		return startupCount[deferred ? 1 : 0];
+	}
+	
+	public final int getStartupMS(boolean deferred) {
+		//average time between asking for a song and hearing it
+		final int i = (deferred ? 1 : 0);
+		return ((startupCount[i] == 0) ? 0 : (startupMS[i] / startupCount[i]));
+	}
+	
+	public final int getStartupBusyMS(boolean deferred) {
+		//average time the player thread was kept busy by start_, which
+		//includes preparing the next song when it is not deferred
+		final int i = (deferred ? 1 : 0);
+		return ((startupCount[i] == 0) ? 0 : (startupBusyMS[i] / startupCount[i]));
+	}
+	
+	public static final int LatencyPhaseCount = LatencyTrace.PhaseCount;
+	
+	public final int getLatencyCount(boolean automatic) {
+		return trace.getCount(automatic);
+	}
+	
+	public final int getLatencyPercentileMS(int phase, int percent, boolean automatic) {
+		//automatic means a transition at the end of a song, where the
+		//AUDIBLE phase is the gap heard between the songs
+		return trace.getPercentileMS(phase, percent, automatic);
+	}
+	
+	public final String exportLatency() {
+		return trace.export();
+	}
+	
+	public final int getWakeupsPerMinute() {
+		//while the first minute is not complete, extrapolate
+		if (wakeupsPerMinute >= 0) return wakeupsPerMinute;
+		final int elapsed = (int)(System.currentTimeMillis() - wakeupsStart);
+		return ((elapsed <= 0) ? 0 : (int)(((long)wakeups * 60000) / elapsed));
+	}
+	
+	private final void countWakeup_() {
+		final long now = System.currentTimeMillis();
+		wakeups++;
+		final int elapsed = (int)(now - wakeupsStart);
+		if (elapsed >= 60000) {
+			wakeupsPerMinute = (int)(((long)wakeups * 60000) / elapsed);
+			wakeups = 0;
+			wakeupsStart = now;
+		}
+	}
+	
+	final void setEqualizer(Equalizer equalizer) {
+		this.equalizer = equalizer;
+	}
+	
+	final void effectChanged() {
+		synchronized (actionsPeding) {
+			effectGeneration++;
+		}
+	}
+	
+	final void setSoftwareEqualizer(SoftwareEqualizer softwareEqualizer) {
+		this.softwareEqualizer = softwareEqualizer;
+	}
+	
 	public final void terminate() {
 		alive = false;
-		setAction(PlayerAction.terminate());
+		setAction(PlayerAction.TERMINATE);
 		waitTermination(2500);
 	}
 	
@@ -257,52 +437,173 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 	}
 	
 	public final void clearVolumeControl() {
-		setAction(PlayerAction.clearVolumeControl());
+		setAction(PlayerAction.CLEAR_VOLUME_CONTROL);
 	}
 	
 	public final int getVolume() {
 		return volume;
 	}
 	
+	private static int stepVolume(int volume, boolean up) {
+		final int d = (volume % VolumeGranularity);
+		if (up) {
+			volume += ((d == 0) ? VolumeGranularity : (VolumeGranularity - d));
+		} else {
+			volume -= ((d == 0) ? VolumeGranularity : d);
+		}
+		return ((volume > MaximumVolume) ? MaximumVolume : ((volume < MinimumVolume) ? MinimumVolume : volume));
+	}
+	
 	public final void setVolume(int volume) {
-		setAction(PlayerAction.setVolume((volume > MaximumVolume) ? MaximumVolume : ((volume < MinimumVolume) ? MinimumVolume : volume)));
+		synchronized (actionsPeding) {
+			targetVolume = ((volume > MaximumVolume) ? MaximumVolume : ((volume < MinimumVolume) ? MinimumVolume : volume));
+			actionsPeding.enqueue(PlayerAction.SET_VOLUME, null, null, targetVolume);
+		}
+	}
+	
+	public final void refreshVolume() {
+		//applies the gain of the songs again (after it has been
+		//analyzed, or after the normalization has been toggled)
+		synchronized (actionsPeding) {
+			actionsPeding.enqueue(PlayerAction.SET_VOLUME, null, null, targetVolume);
+		}
+	}
+	
+	private static int levelFor(Song song, int volume) {
+		//the gain of the song is applied on top of the user volume
+		if (song == null || !Behaviour.environmentGetNormalizeVolume()) return volume;
+		final int gain = song.getGain();
+		int db = (gain + ((gain >= 0) ? 5 : -5)) / 10;
+		if (db < -12) db = -12;
+		else if (db > 12) db = 12;
+		final int level = (volume * GainFactors[db + 12]) >> 10;
+		return ((level > MaximumVolume) ? MaximumVolume : level);
 	}
 	
 	public final void volumeDown() {
-		setAction(PlayerAction.volumeDown());
+		//consecutive volume changes are merged into a single SET_VOLUME
+		synchronized (actionsPeding) {
+			targetVolume = stepVolume(targetVolume, false);
+			actionsPeding.enqueue(PlayerAction.SET_VOLUME, null, null, targetVolume);
+		}
 	}
 	
 	public final void volumeUp() {
-		setAction(PlayerAction.volumeUp());
+		synchronized (actionsPeding) {
+			targetVolume = stepVolume(targetVolume, true);
+			actionsPeding.enqueue(PlayerAction.SET_VOLUME, null, null, targetVolume);
+		}
+	}
+	
+	public final void seekBy(int deltaMS) {
+		//consecutive seeks are merged into a single SEEK, and each one
+		//starts from where the previous one was heading to
+		synchronized (actionsPeding) {
+			if (radioMode || currentSong == null) return;
+			int ms = ((targetSeekMS >= 0) ? targetSeekMS : timeTrackMS) + deltaMS;
+			if (totalTimeMS > 0 && ms > totalTimeMS - 1000) ms = totalTimeMS - 1000;
+			if (ms < 0) ms = 0;
+			targetSeekMS = ms;
+			actionsPeding.enqueue(PlayerAction.SEEK, null, null, ms);
+		}
+	}
+	
+	public final int getReadAheadStallCount() {
+		return ReadAheadInputStream.getStallCount();
+	}
+	
+	public final int getReadAheadStallMS() {
+		return ReadAheadInputStream.getStallMS();
+	}
+	
+	public final int getReadAheadFillPercent() {
+		return ReadAheadInputStream.getAverageFillPercent();
+	}
+	
+	public final void selectionChanged() {
+		//scrolling through the list fires many of these, so the heads
+		//are only read once the cursor rests for a while
+		if (!radioMode) preloadAt = System.currentTimeMillis() + PreloadDelayMS;
+	}
+	
+	public final int getHeadCacheHitCount() {
+		return HeadCache.getHitCount();
+	}
+	
+	public final int getHeadCacheLoadCount() {
+		return HeadCache.getLoadCount();
+	}
+	
+	public final int getHeadCacheByteCount() {
+		return HeadCache.getByteCount();
+	}
+	
+	public final int getSeekTargetMS() {
+		return ((targetSeekMS >= 0) ? targetSeekMS : timeTrackMS);
 	}
 	
 	public final void pause() {
-		setAction(PlayerAction.pause(mplayer));
+		setAction(PlayerAction.PAUSE, mplayer, null);
 	}
 	
 	public final void play(Song song) {
-		if (song != null)
-			setAction(PlayerAction.playSong(song));
+		if (song != null) {
+			synchronized (actionsPeding) {
+				//the seeks queued from now on belong to the new song
+				targetSeekMS = -1;
+				setAction(PlayerAction.PLAY_SONG, null, song);
+			}
+		}
 	}
 	
 	public final void clearNext() {
-		setAction(PlayerAction.clearNext());
+		setAction(PlayerAction.CLEAR_NEXT);
+	}
+	
+	public final boolean enqueue(Song song) {
+		if (radioMode || !queue.enqueue(song)) return false;
+		//the song may have landed among those already prepared
+		if (queue.size() <= Behaviour.environmentGetPrefetchCapacity()) clearNext();
+		return true;
+	}
+	
+	public final boolean playQueued() {
+		//the next command also plays what the user has queued first,
+		//and start_ takes the song out of the queue once it is playing
+		final Song song = (radioMode ? null : queue.peek(0));
+		if (song == null) return false;
+		play(song);
+		return true;
+	}
+	
+	public final void clearQueue() {
+		if (queue.size() == 0) return;
+		queue.clear();
+		clearNext();
+	}
+	
+	public final int getQueueSize() {
+		return queue.size();
+	}
+	
+	public final boolean saveQueue() {
+		return queue.save();
 	}
 	
 	public final void clearNextAndWait() {
-		setActionWaitToComplete(PlayerAction.clearNext());
+		setActionWaitToComplete(PlayerAction.CLEAR_NEXT);
 	}
 	
 	public final void stopAndClear() {
-		setAction(PlayerAction.stopAndClear());
+		setAction(PlayerAction.STOP_AND_CLEAR);
 	}
 	
 	public final void stop() {
-		setAction(PlayerAction.stop());
+		setAction(PlayerAction.STOP);
 	}
 	
 	public final void stopAndWait() {
-		setActionWaitToComplete(PlayerAction.stop());
+		setActionWaitToComplete(PlayerAction.STOP);
 	}
 	
 	private final void reloadLast() {
@@ -310,7 +611,7 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 			//load the last played song at the given time
 			if (currentSong != null) {
 				paused = true;
-				setAction(PlayerAction.reloadLast());
+				setAction(PlayerAction.RELOAD_LAST);
 			} else {
 				paused = false;
 				timeTrackMS = 0;
@@ -318,20 +619,16 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		}
 	}
 	
-	private final void setAction(PlayerAction action) {
-		synchronized (actionsPeding) {
-			actionsPeding.addElement(action);
-			actionsPeding.notify();
-		}
+	private final void setAction(int actionNumber) {
+		actionsPeding.enqueue(actionNumber, null, null, 0);
 	}
 	
-	private final void setActionWaitToComplete(PlayerAction action) {
-		synchronized (actionsPeding) {
-			actionsPeding.addElement(action);
-			actionsPeding.notify();
-		}
-		
-		action.waitToComplete();
+	private final void setAction(int actionNumber, javax.microedition.media.Player player, Object actionObject) {
+		actionsPeding.enqueue(actionNumber, player, actionObject, 0);
+	}
+	
+	private final void setActionWaitToComplete(int actionNumber) {
+		actionsPeding.enqueueWaitable(actionNumber).waitToComplete();
 	}
 	
 	public final void run() {
@@ -340,12 +637,7 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 			PlayerAction action;
 			
 			synchronized (actionsPeding) {
-				if (actionsPeding.size() > 0) {
-					action = (PlayerAction) actionsPeding.elementAt(0);
-					actionsPeding.removeElementAt(0);
-				} else {
-					action = null;
-				}
+				action = actionsPeding.dequeue();
 				
 				if (action == null) {
 					try {
@@ -354,20 +646,22 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 						if (paused || mplayer == null) {
 							//must not call wait() because that way
 							//the screen saver would never activate
-							actionsPeding.wait(1000); 
+							actionsPeding.wait(notifyDelayMS_(1000)); 
 						} else {
-							actionsPeding.wait(100);
+							//waitMS goes from a fine tick, when the next
+							//player is about to be started, up to 1 second,
+							//when the time is not being displayed
+							actionsPeding.wait(notifyDelayMS_(waitMS));
 						}
 					} catch (Throwable ex) {
 					}
 					
-					if (actionsPeding.size() > 0) {
-						action = (PlayerAction) actionsPeding.elementAt(0);
-						actionsPeding.removeElementAt(0);
-					}
+					action = actionsPeding.dequeue();
 				}
 			}
 			
+			countWakeup_();
+			
 			if (!alive)
 				break;
 			
@@ -384,23 +678,23 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 				switch (actionNumber) {
 					case PlayerAction.END_OF_MEDIA:
 						if (mplayer == action.getPlayer()) {
-							start_(null);
+							handoff.ended(action.getEnqueuedAt());
+							trace.begin(action.getEnqueuedAt(), true);
+							start_(null, false);
+						} else if (mplayerFading == action.getPlayer()) {
+							fadeEnd_();
 						} else {
 							action.getPlayer().close();
 						}
 						break;
 					case PlayerAction.PLAY_SONG:
-						if (action.getObject() != null)
-							start_((Song)action.getObject());
+						if (action.getObject() != null) {
+							trace.begin(action.getEnqueuedAt(), false);
+							start_((Song)action.getObject(), false);
+						}
 						break;
 					case PlayerAction.SET_VOLUME:
-						volume_(((Integer)action.getObject()).intValue());
-						break;
-					case PlayerAction.VOLUME_DOWN:
-						volume_(-1);
-						break;
-					case PlayerAction.VOLUME_UP:
-						volume_(-2);
+						volume_(action.getValue());
 						break;
 					case PlayerAction.PAUSE:
 						//if (mplayer == action.getPlayer())
@@ -408,20 +702,36 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 						break;
 					case PlayerAction.CLEAR_NEXT:
 						clear_(true);
+						pipeline.clear();
+						//what comes next has changed, so prepare it again
+						//right away, unless it is still scheduled for later
+						if (mplayer != null && prefetchAtMS < 0) prefetchAtMS = 0;
 						break;
 					case PlayerAction.STOP:
+						trace.cancel();
+						bookmark_(false);
 						stop_(true);
 						break;
 					case PlayerAction.STOP_AND_CLEAR:
+						trace.cancel();
+						bookmark_(false);
 						stop_(true);
 						timeTrackMS = 0;
 						break;
 					case PlayerAction.RELOAD_LAST:
 						reloadLast_();
 						break;
+					case PlayerAction.SEEK:
+						seek_(action.getValue());
+						synchronized (actionsPeding) {
+							//a newer SEEK may already be on its way
+							if (targetSeekMS == action.getValue()) targetSeekMS = -1;
+						}
+						break;
 					case PlayerAction.CLEAR_VOLUME_CONTROL:
 						ctrlVol = null;
 						ctrlVolNext = null;
+						ctrlVolFading = null;
 						break;
 					//case PlayerAction.UPDATE_DURATION:
 					//	if (mplayer == action.getPlayer())
@@ -433,6 +743,12 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 							cleanupMsg("Erro em ", currentSong.getTitle(), action.getObject().toString(), false);
 						} else if (mplayerNext == action.getPlayer()) {
 							clear_(true);
+						} else if (mplayerFading == action.getPlayer()) {
+							fadeEnd_();
+						} else {
+							//drop the failed slot and all the slots after it
+							final int i = pipeline.indexOf(action.getPlayer());
+							if (i >= 0) pipeline.truncate(i);
 						}
 						break;
 					case PlayerAction.DEVICE_UNAVAILABLE:
@@ -470,62 +786,114 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 				//Main.setThreadProcessing(false);
 				
 				action.setCompleted();
+				actionsPeding.recycle(action);
 				
-				if (actionNumber != PlayerAction.CLEAR_NEXT) {
-					listener.stateChanged();
-				}
+				//the handoff delay computed before this action is no
+				//longer valid
+				waitMS = TickMS;
+				
+				publish_();
 			} else {
+				if (trace.isWaitingAudible() && !paused && mplayer != null) {
+					try {
+						trace.sample(mplayer.getMediaTime());
+					} catch (Throwable ex) {
+						trace.cancel();
+					}
+				}
 				if (!paused && mplayer != null && !radioMode) {
 					//it's not possible to seek in radio, so don't bother
 					//keeping track of play time
 					
 					int t = 0;
 					
+					waitMS = TickMS;
+					
+					if (fade.isRunning()) {
+						fadeStep_(System.currentTimeMillis());
+					}
+					
 					try {
-						t = (int)(mplayer.getMediaTime() / 1000);
+						t = mediaOffsetMS + (int)(mplayer.getMediaTime() / 1000);
 					} catch (Throwable ex) {
 						//error getting the current time
 						continue;
 					}
 					
-					if (t > (totalTimeMS - 400) && mplayerNext != null) {
+					final long now = System.currentTimeMillis();
+					handoff.sample(t, totalTimeMS, now);
+					
+					final int fadeMS = crossfadeMS_();
+					
+					if (governor.isUnderPressure(now) && releaseAhead_() && prefetchAtMS < 0) {
+						//try again later, the governor will decide whether
+						//there is enough memory by then
+						prefetchAtMS = t + PressureRetryMS;
+					}
+					
+					if (prefetchAtMS >= 0 && t >= prefetchAtMS) {
+						//the current song has been playing long enough (or
+						//its end is near), so the next one can be prepared
+						prefetchAtMS = -1;
+						prepareNext_();
+					} else if (preloadAt != 0 && now >= preloadAt && actionsPeding.size() == 0) {
+						preloadAt = 0;
+						preloadHeads_();
+					}
+					
+					if (totalTimeMS > 0 && handoff.isArmed() && t > (totalTimeMS - fadeMS - HandoffWindowMS) && mplayerNext != null) {
+						//instead of spinning until the end of the media, sleep
+						//until the predicted moment the next player must be
+						//started (END_OF_MEDIA is still handled, in case the
+						//prediction is too late, and it is the only way out
+						//when the duration is unknown)
+						int delay = 0;
 						try {
-							//350 was 300
-							while (alive && t > (totalTimeMS - 350) && mplayer.getState() == javax.microedition.media.Player.STARTED) {
-								t = (int)(mplayer.getMediaTime() / 1000);
-								Thread.yield();
+							if (mplayer.getState() == javax.microedition.media.Player.STARTED) {
+								delay = handoff.getWakeDelay(now, fadeMS);
 							}
 						} catch (Throwable ex) {
-							//error getting the current time
-							continue;
 						}
-						if (alive) {
-							start_(null);
-							listener.stateChanged();
+						if (delay > 0) {
+							//a running ramp still needs the regular tick
+							waitMS = ((fade.isRunning() && delay > TickMS) ? TickMS : delay);
+						} else if (alive) {
+							trace.begin(now, true);
+							start_(null, fadeMS > 0);
+							publish_();
 						}
-					} else if (t >= timeTrackMS) {
-						if ((t - timeTrackMS) <= 10000) {
-							if (!paused && mplayer != null) {
-								timeTrackMS = t;
-								
-								final int ts = t / 1000;
-								//refresh the timer display screen if the time has changed
-								if (ts != timeSec) {
-									timeSec = ts;
-									listener.stateChanged();
+					} else {
+						if (t >= timeTrackMS) {
+							if ((t - timeTrackMS) <= 10000) {
+								if (!paused && mplayer != null) {
+									timeTrackMS = t;
+									
+									final int ts = t / 1000;
+									//refresh the timer display screen if the time has changed
+									if (ts != timeSec) {
+										timeSec = ts;
+										publish_();
+									}
 								}
+							} else {
+								deviceUnavailable_();
 							}
-						} else {
-							deviceUnavailable_();
 						}
+						waitMS = nextTickMS_(t, fadeMS);
 					}
 				}
+				if (trace.isWaitingAudible() && waitMS > AudibleTickMS) {
+					waitMS = AudibleTickMS;
+				}
 				//check for the screen saver only when there
 				//are no actions pending
 				Main.SSProcess();
 			}
+			
+			notify_();
 		} while (alive);
 		
+		bookmark_(false);
 		stop_(true);
 		
 		alive = true;
@@ -535,17 +903,17 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		//Main.alertShow(event, true);
 		//System.err.println(event);
 		if (event == STOPPED_AT_TIME || event == END_OF_MEDIA) {
-			setAction(PlayerAction.endOfMedia(player));
+			setAction(PlayerAction.END_OF_MEDIA, player, null);
 		//} else if (event == DURATION_UPDATED) {
-		//	setAction(PlayerAction.updateDuration(player, (Long)eventData));
+		//	setAction(PlayerAction.UPDATE_DURATION, player, (Long)eventData);
 		} else if (event == DEVICE_UNAVAILABLE) {
-			setAction(PlayerAction.deviceUnavailable(player));
+			setAction(PlayerAction.DEVICE_UNAVAILABLE, player, null);
 		} else if (event == DEVICE_AVAILABLE) {
-			setAction(PlayerAction.deviceAvailable(player));
+			setAction(PlayerAction.DEVICE_AVAILABLE, player, null);
 		} else if (event == ERROR) {
-			setAction(PlayerAction.error(player, eventData.toString()));
+			setAction(PlayerAction.ERROR, player, eventData.toString());
 		} else if (event == STOPPED) {
-			setAction(PlayerAction.stopped(player));
+			setAction(PlayerAction.STOPPED, player, null);
 		}
 		//else {
 		//	Main.alertShow(event + " " + eventData.toString() + " " + player.toString(), false);
@@ -562,65 +930,142 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		//VOLUME_CHANGED
 	}
 	
-	private final String playerCreate_(Song song, boolean nextPlayer, boolean startCurrent) {
-		javax.microedition.media.Player p = null;
-		String errMsg = null;
-		if (song != null) {
+	private final javax.microedition.media.Player playerOpen_(Song song, boolean readAhead) throws Exception {
+		//prepared players do not read ahead: their windows and reader
+		//threads would compete for memory and for the card with the
+		//song being played
+		if (radioMode) {
+			return Manager.createPlayer(song.getRadioURL(radioStereo));
+		}
+		if (softwareEqualizer != null && softwareEqualizer.isEnabled() && EqualizedInputStream.isSupported(song.getFileName())) {
+			//the samples must go through the software equalizer, so
+			//MMAPI reads them from our stream, instead of the file
 			try {
-				//try to create the player using 2 types of URL!!!
-				p = Manager.createPlayer(radioMode ? song.getRadioURL(radioStereo) : song.getDirectURL());
+				return playerOpenEqualized_(song);
 			} catch (Throwable ex) {
-				if (radioMode)
-					errMsg = ex.getMessage();
 			}
-			if (p == null && !radioMode) {
+		}
+		if (ReadAheadInputStream.isSupported(song.getFileName())) {
+			//the first bytes may already be in memory
+			final java.io.InputStream in = HeadCache.openStream(song);
+			if (in != null) {
 				try {
-					p = Manager.createPlayer(song.getEncodedURL());
+					return Manager.createPlayer(in, ReadAheadInputStream.getContentType(song.getFileName()));
 				} catch (Throwable ex) {
-					errMsg = ex.getMessage();
+					in.close();
 				}
 			}
+		}
+		if (readAhead && Behaviour.environmentGetReadAheadBytes() > 0 && ReadAheadInputStream.isSupported(song.getFileName())) {
+			//the file is read by our own thread, a window ahead of
+			//MMAPI, instead of leaving the card to the device
+			try {
+				return playerOpenStream_(song, 0);
+			} catch (Throwable ex) {
+			}
+		}
+		//the URL form that worked last time for this storage root is
+		//tried first, so the other one is only tried if it fails
+		return URLResolver.createPlayer(song);
+	}
+	
+	private final javax.microedition.media.Player playerOpenStream_(Song song, int offset) throws Exception {
+		final javax.microedition.io.file.FileConnection fc = URLResolver.openFile(song);
+		try {
+			//the inner stream owns the file, so closing the outer one
+			//closes everything
+			java.io.InputStream in = new OffsetInputStream(fc.openInputStream(), fc, offset);
+			final int window = Behaviour.environmentGetReadAheadBytes();
+			if (window > 0) in = new ReadAheadInputStream(in, null, window);
+			return Manager.createPlayer(in, ReadAheadInputStream.getContentType(song.getFileName()));
+		} catch (Exception ex) {
+			fc.close();
+			throw ex;
+		}
+	}
+	
+	private final javax.microedition.media.Player playerOpenEqualized_(Song song) throws Exception {
+		final javax.microedition.io.file.FileConnection fc = URLResolver.openFile(song);
+		try {
+			return Manager.createPlayer(new EqualizedInputStream(fc.openInputStream(), fc, softwareEqualizer), "audio/x-wav");
+		} catch (Exception ex) {
+			fc.close();
+			throw ex;
+		}
+	}
+	
+	private final String playerCreate_(Song song, boolean nextPlayer, boolean fully) {
+		//fully means start, for the current player, or prefetch, for the
+		//next one
+		javax.microedition.media.Player p = null;
+		String errMsg = null;
+		final int generation = effectGeneration;
+		createFailure = null;
+		if (song != null) {
+			try {
+				p = playerOpen_(song, !nextPlayer);
+				if (!nextPlayer) trace.mark(LatencyTrace.CREATED);
+			} catch (Throwable ex) {
+				errMsg = ex.getMessage();
+				createFailure = ex;
+			}
 			
 			if (errMsg == null) {
 				if (nextPlayer) {
+					final Runtime rt = Runtime.getRuntime();
 					try {
+						final long free = rt.freeMemory();
 						p.realize();
+						governor.realized(free - rt.freeMemory());
 						if (Behaviour.environmentHasVolumeControl()) {
 							ctrlVolNext = (VolumeControl)p.getControl("VolumeControl");
 						}
 						mplayerNext = p;
+						nextEffectGeneration = generation;
 					} catch (Throwable ex) {
 						errMsg = ex.getMessage();
+						createFailure = ex;
+						if (ex instanceof OutOfMemoryError) governor.outOfMemory();
 					}
 					
-					if (errMsg == null) {
+					if (errMsg == null && fully) {
 						//if the realization worked, try to prefetch the data,
 						//but if the prefetch fails, the next player can still
 						//be usefull, so, don't set the errMsg!
 						try {
+							final long free = rt.freeMemory();
 							p.prefetch();
+							governor.prefetched(free - rt.freeMemory());
 						} catch (Throwable ex) {
+							if (ex instanceof OutOfMemoryError) governor.outOfMemory();
 						}
-						
+					}
+					
+					if (errMsg == null) {
 						//addPlayerListener MUST come before start!
 						p.addPlayerListener(this);
 					} else {
 						clear_(true);
 					}
 				} else {
+					boolean realized = false;
 					try {
 						p.realize();
+						realized = true;
+						trace.mark(LatencyTrace.REALIZED);
 						p.prefetch();
+						trace.mark(LatencyTrace.PREFETCHED);
 						if (Behaviour.environmentHasVolumeControl()) {
 							ctrlVol = (VolumeControl)p.getControl("VolumeControl");
 							if (ctrlVol != null) {
-								ctrlVol.setLevel(volume);
+								ctrlVol.setLevel(levelFor(song, volume));
 							}
 						}
 						//addPlayerListener MUST come before start!
 						p.addPlayerListener(this);
-						if (startCurrent) {
+						if (fully) {
 							p.start();
+							traceStarted_(p);
 							if (resetVolume) {
 								resetVolume = false;
 								resetGlobalVolume();
@@ -629,6 +1074,7 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 						mplayer = p;
 					} catch (Throwable ex) {
 						errMsg = ex.getMessage();
+						if (!realized) createFailure = ex;
 					}
 				}
 			}
@@ -637,26 +1083,30 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		return errMsg;
 	}
 	
-	private final void volume_(int volume) {
-		if (volume == -1) { //down
-			final int d = (this.volume % VolumeGranularity);
-			volume = this.volume - ((d == 0) ? VolumeGranularity : d);
-		} else if (volume == -2) { //up
-			final int d = (this.volume % VolumeGranularity);
-			volume = this.volume + ((d == 0) ? VolumeGranularity : (VolumeGranularity - d));
+	private final void rememberFailure_(Song song) {
+		//only failures of the current player are remembered, and running
+		//out of memory (or permission) says nothing about the file itself
+		if (createFailure != null && !(createFailure instanceof OutOfMemoryError) && !(createFailure instanceof SecurityException)) {
+			UnplayableMemo.add(song);
 		}
-		
+		createFailure = null;
+	}
+	
+	private final void volume_(int volume) {
 		this.volume = ((volume > MaximumVolume) ? MaximumVolume : ((volume < MinimumVolume) ? MinimumVolume : volume));
 		
 		if (ctrlVol != null) {
+			//while crossfading, the current player is still on its ramp
+			//(the fading player picks up the new volume on the next tick)
+			final int level = fade.getFadeInLevel(levelFor(currentSong, this.volume));
 			try {
-				ctrlVol.setLevel(volume);
+				ctrlVol.setLevel(level);
 			} catch (Throwable ex) {
 				if (mplayer != null) {
 					try {
 						ctrlVol = (VolumeControl)mplayer.getControl("VolumeControl");
 						if (ctrlVol != null)
-							ctrlVol.setLevel(volume);
+							ctrlVol.setLevel(level);
 					} catch (Throwable ex2) {
 						
 					}
@@ -665,14 +1115,15 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		}
 		
 		if (ctrlVolNext != null) {
+			final int level = levelFor(nextSong, this.volume);
 			try {
-				ctrlVolNext.setLevel(volume);
+				ctrlVolNext.setLevel(level);
 			} catch (Throwable ex) {
 				if (mplayerNext != null) {
 					try {
 						ctrlVolNext = (VolumeControl)mplayerNext.getControl("VolumeControl");
 						if (ctrlVolNext != null)
-							ctrlVolNext.setLevel(volume);
+							ctrlVolNext.setLevel(level);
 					} catch (Throwable ex2) {
 						
 					}
@@ -705,18 +1156,346 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 			//when using radio there is no need to prefetch the next song
 			
 			if (mplayer != null) {
-				updateTotalTime_(mplayer.getDuration());
+				//a player opened past the beginning only knows the rest
+				final long duration = mplayer.getDuration();
+				updateTotalTime_((duration > 0) ? (duration + ((long)mediaOffsetMS * 1000)) : duration);
+				if (totalTimeMS > 0 && currentSong != null) currentSong.setDurationMS(totalTimeMS);
 			}
 			
+			prefetchAtMS = -1;
 			if (Behaviour.environmentGetLoadNextSong()) {
-				//try to get the next file
-				nextSong = listener.getSong(true, true);
-				if (nextSong != null)
-					playerCreate_(nextSong, true, false);
+				final int delayMS = Behaviour.environmentGetPrefetchDelayMS();
+				if (delayMS <= 0 || mplayer == null) {
+					prepareNext_();
+				} else {
+					//media time is used, so a stalled or paused song is
+					//not mistaken for one playing steadily
+					int t = mediaOffsetMS;
+					try {
+						t += (int)(mplayer.getMediaTime() / 1000);
+					} catch (Throwable ex) {
+					}
+					int at = t + delayMS;
+					if (totalTimeMS > 0) {
+						final int latest = totalTimeMS - PrefetchLeadMS - Behaviour.environmentGetCrossfadeMS();
+						if (at > latest) at = latest;
+					}
+					prefetchAtMS = ((at < t) ? t : at);
+				}
+			}
+		}
+	}
+	
+	private final Song nextSong_(boolean justPeek) {
+		//queued songs play before the list moves on
+		if (!radioMode) {
+			final Song song = (justPeek ? queue.peek(0) : queue.dequeue());
+			if (song != null) return song;
+		}
+		return listener.getSong(true, justPeek);
+	}
+	
+	private final Song peekNext_(int distance) {
+		//must follow the same order used by nextSong_()
+		final int n = (radioMode ? 0 : queue.size());
+		if (distance <= n) return queue.peek(distance - 1);
+		return listener.peekSong(distance - n);
+	}
+	
+	private final void advance_(Song song) {
+		//the song has started, so either the queue or the list moves on
+		if (song != null && !radioMode && queue.peek(0) == song) {
+			queue.dequeue();
+		} else {
+			listener.getSong(true, false);
+		}
+	}
+	
+	private final void prepareNext_() {
+		if (radioMode || !Behaviour.environmentGetLoadNextSong())
+			return;
+		
+		//try to get the next file
+		final Song song = nextSong_(true);
+		if (mplayerNext == null) {
+			//the next player may already be waiting in the pipeline
+			promote_();
+		}
+		if (song != nextSong || mplayerNext == null) {
+			clear_(true);
+			if (song != null && !UnplayableMemo.isUnplayable(song)) {
+				//how far the next player goes depends on how much memory
+				//is left, and on what the previous ones have cost
+				final int decision = governor.decide(!prefetchRetry);
+				prefetchRetry = false;
+				if (decision == PrefetchGovernor.SKIP) {
+					if (mplayer != null) {
+						//try again later in the song, the same way it is
+						//done after releasing players under pressure
+						prefetchAtMS = timeTrackMS + PressureRetryMS;
+						prefetchRetry = true;
+					}
+				} else {
+					nextSong = song;
+					if (playerCreate_(song, true, decision == PrefetchGovernor.PREFETCH) != null) {
+						//a second player may simply not fit in the device
+						//while the current one plays, which says nothing
+						//about the file, so it is just dropped
+						createFailure = null;
+						clear_(true);
+					}
+				}
+			}
+		}
+		fillPipeline_(Behaviour.environmentGetPrefetchCapacity() - 1);
+		
+		preloadAt = 0;
+		preloadHeads_();
+		
+		if (actionsPeding.size() > 0 && mplayer != null) {
+			//the slots further ahead were abandoned in favor of a pending
+			//action (the user skipping, most likely), so try again on the
+			//next tick, unless start_ reschedules everything first
+			prefetchAtMS = 0;
+		}
+	}
+	
+	private final void preloadHeads_() {
+		//a skip to a song other than the prepared one can still start
+		//from memory, as long as its first bytes are already here
+		if (radioMode) return;
+		final Runtime rt = Runtime.getRuntime();
+		final int budget = (governor.isLow() ? 0 : (int)Math.min(HeadBudget, rt.totalMemory() >> 4));
+		if (mplayerNext == null) HeadCache.preload(peekNext_(1), budget);
+		HeadCache.preload(listener.peekSong(-1), budget);
+		//the selection goes last, so it is the last one to be dropped
+		final Song selected = listener.getSelectedSong();
+		if (selected != currentSong) HeadCache.preload(selected, budget);
+	}
+	
+	private final boolean releaseAhead_() {
+		//the players prepared in advance are the first to go when memory
+		//gets low in the middle of a song, the furthest ones first and
+		//mplayerNext last, so the current player is never affected (the
+		//heads of the likely songs and the seek indices go even before them)
+		if (HeadCache.getByteCount() > 0) {
+			HeadCache.clear();
+		} else if (SeekIndex.getByteCount() > 0) {
+			SeekIndex.clear();
+		} else if (pipeline.size() > 0) {
+			pipeline.truncate(pipeline.size() - 1);
+		} else if (mplayerNext != null) {
+			clear_(true);
+		} else {
+			return false;
+		}
+		governor.released();
+		System.gc();
+		return true;
+	}
+	
+	private final boolean promote_() {
+		//turns the first slot of the pipeline into the next player
+		if (pipeline.size() == 0) return false;
+		final Song song = pipeline.getSong(0);
+		final boolean isPrefetched = pipeline.isPrefetched(0);
+		final javax.microedition.media.Player p = pipeline.takeFirst();
+		clear_(true);
+		if (!isPrefetched && governor.decide(false) == PrefetchGovernor.PREFETCH) {
+			try {
+				p.prefetch();
+			} catch (Throwable ex) {
+			}
+		}
+		if (Behaviour.environmentHasVolumeControl()) {
+			try {
+				ctrlVolNext = (VolumeControl)p.getControl("VolumeControl");
+			} catch (Throwable ex) {
+			}
+		}
+		mplayerNext = p;
+		//it may have been created before the last equalizer change
+		nextEffectGeneration = -1;
+		nextSong = song;
+		return true;
+	}
+	
+	private final void fillPipeline_(int capacity) {
+		//the slots after the next player follow the same playback order
+		//getSong(true, true) uses (the furthest ones are only realized
+		//when the memory is not enough to prefetch them)
+		if (capacity > PrefetchPipeline.MaximumSlots) capacity = PrefetchPipeline.MaximumSlots;
+		if (capacity < 0 || mplayerNext == null) capacity = 0;
+		int i = 0;
+		for (; i < capacity; i++) {
+			//preparing songs further ahead must not delay a skip
+			if (actionsPeding.size() > 0) break;
+			final Song song = peekNext_(i + 2);
+			if (song == null || song == currentSong || song == nextSong) break;
+			if (i < pipeline.size()) {
+				if (pipeline.getSong(i) == song) continue;
+				pipeline.truncate(i);
+			}
+			if (pipeline.indexOf(song) >= 0 || UnplayableMemo.isUnplayable(song)) break;
+			final int decision = governor.decide(true);
+			if (decision == PrefetchGovernor.SKIP) break;
+			final Runtime rt = Runtime.getRuntime();
+			javax.microedition.media.Player p = null;
+			try {
+				p = playerOpen_(song, false);
+				final long free = rt.freeMemory();
+				p.realize();
+				governor.realized(free - rt.freeMemory());
+			} catch (Throwable ex) {
+				if (p != null) p.close();
+				if (ex instanceof OutOfMemoryError) governor.outOfMemory();
+				//not remembered as unplayable, as in prepareNext_
+				break;
+			}
+			boolean isPrefetched = false;
+			if (decision == PrefetchGovernor.PREFETCH) {
+				try {
+					final long free = rt.freeMemory();
+					p.prefetch();
+					governor.prefetched(free - rt.freeMemory());
+					isPrefetched = true;
+				} catch (Throwable ex) {
+					if (ex instanceof OutOfMemoryError) governor.outOfMemory();
+				}
 			}
+			p.addPlayerListener(this);
+			pipeline.add(song, p, isPrefetched);
+		}
+		pipeline.truncate(i);
+		pipeline.trim(governor);
+	}
+	
+	private final void bookmark_(boolean finished) {
+		if (radioMode || currentSong == null) return;
+		if (finished) {
+			Bookmarks.remove(currentSong);
+		} else {
+			Bookmarks.put(currentSong, timeTrackMS, (totalTimeMS > 0) ? totalTimeMS : currentSong.getDurationMS());
+		}
+	}
+	
+	private final boolean resume_(javax.microedition.media.Player p, Song song) {
+		//long recordings go back to where they were left, using the same
+		//prefetch + setMediaTime sequence pause_ uses to recover
+		final int resumeMS = Bookmarks.getPositionMS(song);
+		if (resumeMS <= 0) return false;
+		try {
+			p.prefetch();
+			final long t = p.setMediaTime((long)resumeMS * 1000);
+			//the player may not land exactly where it was asked to
+			timeTrackMS = (int)(((t < 0) ? resumeMS : (t / 1000)));
+			Bookmarks.resumed();
+			return true;
+		} catch (Throwable ex) {
+			return false;
 		}
 	}
 	
+	private final void seekTo_(Song song, int ms) throws Exception {
+		//moves the current player (which may even be replaced by another
+		//one, opened right at the frame where ms begins); song is the one
+		//it plays, as currentSong is not set yet when resuming a bookmark
+		if ((mediaOffsetMS != 0 || Behaviour.environmentGetByteSeek()) && SeekIndex.isSupported(song.getFileName())) {
+			final SeekIndex index = SeekIndex.get(song);
+			if (index != null) {
+				final int[] position = new int[2];
+				index.locate(song, ms, position);
+				if (seekByOffset_(song, position[0], position[1])) return;
+			} else if (!governor.isLow()) {
+				//until the index is ready, the player seeks by itself
+				SeekIndex.request(song);
+			}
+		}
+		if (ms < mediaOffsetMS) {
+			//this player cannot go back past where it was opened
+			if (!seekByOffset_(song, 0, 0)) throw new IllegalStateException();
+		}
+		mplayer.prefetch();
+		final long t = mplayer.setMediaTime((long)(ms - mediaOffsetMS) * 1000);
+		//the player may not land exactly where it was asked to
+		timeTrackMS = mediaOffsetMS + ((t < 0) ? (ms - mediaOffsetMS) : (int)(t / 1000));
+	}
+	
+	private final boolean seekByOffset_(Song song, int offset, int s) {
+		//offset is where the frame starting at second s is in the file
+		javax.microedition.media.Player p = null;
+		VolumeControl c = null;
+		try {
+			p = ((s == 0) ? playerOpen_(song, true) : playerOpenStream_(song, offset));
+			p.realize();
+			p.prefetch();
+			if (Behaviour.environmentHasVolumeControl()) {
+				c = (VolumeControl)p.getControl("VolumeControl");
+				if (c != null) c.setLevel(levelFor(song, volume));
+			}
+		} catch (Throwable ex) {
+			if (p != null) p.close();
+			return false;
+		}
+		//addPlayerListener MUST come before start!
+		p.addPlayerListener(this);
+		final javax.microedition.media.Player old = mplayer;
+		old.removePlayerListener(this);
+		if (mplayerLostDevice == old) mplayerLostDevice = p;
+		mplayer = p;
+		ctrlVol = c;
+		old.close();
+		mediaOffsetMS = s * 1000;
+		timeTrackMS = mediaOffsetMS;
+		return true;
+	}
+	
+	private final void seek_(int ms) {
+		if (radioMode || mplayer == null || currentSong == null) return;
+		fadeEnd_();
+		try {
+			seekTo_(currentSong, ms);
+			if (!paused) mplayer.start();
+		} catch (Throwable ex) {
+			Main.alertShow("Erro ao buscar: " + ex.getMessage(), true);
+			return;
+		}
+		reloadTime = false;
+		timeSec = timeTrackMS / 1000;
+		handoff.reset();
+	}
+	
+	private final void traceStarted_(javax.microedition.media.Player p) {
+		try {
+			trace.started(p.getMediaTime());
+		} catch (Throwable ex) {
+			trace.cancel();
+		}
+	}
+	
+	private final String playerCreateAndResume_(Song song) {
+		final int resumeMS = Bookmarks.getPositionMS(song);
+		if (resumeMS <= 0) return playerCreate_(song, false, true);
+		final String errMsg = playerCreate_(song, false, false);
+		if (errMsg != null) return errMsg;
+		try {
+			seekTo_(song, resumeMS);
+			Bookmarks.resumed();
+		} catch (Throwable ex) {
+		}
+		try {
+			mplayer.start();
+		} catch (Throwable ex) {
+			return ((ex.getMessage() == null) ? "" : ex.getMessage());
+		}
+		traceStarted_(mplayer);
+		if (resetVolume) {
+			resetVolume = false;
+			resetGlobalVolume();
+		}
+		return null;
+	}
+	
 	private final void reloadLast_() {
 		if (currentSong == null || radioMode)
 			return;
@@ -741,7 +1520,86 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		}
 	}
 	
-	private final void start_(Song song) {
+	private final int nextTickMS_(int t, int fadeMS) {
+		//the fine tick is only needed while crossfading and right before
+		//the handoff window, otherwise the displayed time changes only
+		//once a second (and nobody sees it when the screen is off)
+		if (fade.isRunning() || (totalTimeMS > 0 && t > (totalTimeMS - fadeMS - HandoffWindowMS - CoarseTickMS)))
+			return TickMS;
+		if (!listener.isTimeVisible())
+			return CoarseTickMS;
+		//wake up right after the displayed second changes
+		final int ms = CoarseTickMS - (t % 1000) + 20;
+		return ((ms < TickMS) ? TickMS : ((ms > CoarseTickMS) ? CoarseTickMS : ms));
+	}
+	
+	private final int crossfadeMS_() {
+		final int ms = Behaviour.environmentGetCrossfadeMS();
+		//fall back to a hard cut when the levels cannot be controlled,
+		//when the track is too short, or when there is not enough memory
+		//to keep two players running at the same time
+		if (ms <= 0 || ctrlVol == null || totalTimeMS < (ms << 1) || governor.isLow()) return 0;
+		fade.configure(ms, TickMS);
+		return ms;
+	}
+	
+	private final void fadeStep_(long now) {
+		final boolean running = fade.advance(now);
+		if (ctrlVol != null) {
+			try {
+				ctrlVol.setLevel(fade.getFadeInLevel(levelFor(currentSong, volume)));
+			} catch (Throwable ex) {
+			}
+		}
+		if (!running) {
+			fadeEnd_();
+		} else if (ctrlVolFading != null) {
+			try {
+				ctrlVolFading.setLevel(fade.getFadeOutLevel(levelFor(fadingSong, volume)));
+			} catch (Throwable ex) {
+			}
+		}
+	}
+	
+	private final void fadeEnd_() {
+		//cut the ramp short (or finish it), leaving only the current
+		//player, at the regular volume
+		final boolean wasRunning = fade.isRunning();
+		fade.end();
+		final javax.microedition.media.Player p = mplayerFading;
+		mplayerFading = null;
+		ctrlVolFading = null;
+		fadingSong = null;
+		if (p != null) {
+			p.close();
+			handoff.previousStopped(System.currentTimeMillis());
+		}
+		if (wasRunning && ctrlVol != null) {
+			try {
+				ctrlVol.setLevel(levelFor(currentSong, volume));
+			} catch (Throwable ex) {
+			}
+		}
+	}
+	
+	private final boolean effectsCurrent_() {
+		final int generation = effectGeneration;
+		if (nextEffectGeneration == generation) return true;
+		if (equalizer != null && !equalizer.applyTo(mplayerNext)) return false;
+		nextEffectGeneration = generation;
+		return true;
+	}
+	
+	private final void start_(Song song, boolean crossfade) {
+		final long startBegin = System.currentTimeMillis();
+		long startEnd = 0;
+		//the song being left behind is remembered before timeTrackMS
+		//is reset (or forgotten, if it has just played to the end)
+		bookmark_(song == null);
+		Bookmarks.saveIfDue();
+		governor.transition();
+		prefetchAtMS = -1;
+		prefetchRetry = false;
 		paused = false;
 		playAfterRecovery = false;
 		reloadTime = false;
@@ -754,11 +1612,36 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		final boolean autoCalled = (song == null);
 		String errMsg = null;
 		
+		if (!autoCalled && !radioMode && queue.peek(0) == song) {
+			//the user skipped to the head of the queue
+			queue.dequeue();
+		}
+		
+		if (!autoCalled) handoff.cancelTransition();
+		
 		listener.resetSongCycling();
 		
 		if (song == null) {
 			//don't call getSong(true, false), in order not to update the ui
-			song = listener.getSong(true, true);
+			song = nextSong_(true);
+		}
+		
+		if (song != null && song != nextSong) {
+			//the requested song may already be prepared further ahead
+			//(skipping several songs in a row)
+			final int i = pipeline.indexOf(song);
+			if (i >= 0) {
+				for (int j = 0; j < i; j++) {
+					pipeline.remove(0);
+				}
+				promote_();
+			}
+		}
+		
+		if (song == nextSong && mplayerNext != null && !effectsCurrent_()) {
+			//the equalizer could not be applied to the prepared player,
+			//so it is created again, with the current levels
+			clear_(true);
 		}
 		
 		if (song == nextSong && mplayerNext != null) {
@@ -774,14 +1657,41 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 						}
 					}
 					if (ctrlVolNext != null) {
-						ctrlVolNext.setLevel(volume);
+						ctrlVolNext.setLevel(crossfade ? 0 : levelFor(nextSong, volume));
 					}
 				}
+				if (ctrlVolNext == null || mplayer == null) {
+					crossfade = false;
+				}
+				resume_(mplayerNext, nextSong);
+				final long startTime = System.currentTimeMillis();
 				mplayerNext.start();
+				traceStarted_(mplayerNext);
+				if (autoCalled) {
+					final long now = System.currentTimeMillis();
+					handoff.startLatency((int)(now - startTime));
+					handoff.transitionStarted(now);
+				}
 				song = nextSong;
 				
-				//stop the previous current player
-				stop_(false);
+				if (crossfade) {
+					//keep the previous player running while its volume
+					//ramps down (it is closed when the ramp ends)
+					final javax.microedition.media.Player p = mplayer;
+					final VolumeControl c = ctrlVol;
+					final Song s = currentSong;
+					mplayer = null;
+					ctrlVol = null;
+					stop_(false);
+					mplayerFading = p;
+					ctrlVolFading = c;
+					fadingSong = s;
+					fade.begin(System.currentTimeMillis());
+				} else {
+					//stop the previous current player
+					stop_(false);
+					if (autoCalled) handoff.previousStopped(System.currentTimeMillis());
+				}
 				
 				currentSong = nextSong;
 				
@@ -799,11 +1709,11 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 				
 				//update the ui here
 				if (autoCalled)
-					listener.getSong(true, false);
+					advance_(song);
 			} catch (Throwable ex) {
 				//update the ui here
 				if (autoCalled)
-					listener.getSong(true, false);
+					advance_(song);
 				
 				cleanupMsg("Erro ao tocar ", song.getTitle(), ex.getMessage(), autoCalled);
 				
@@ -821,52 +1731,80 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 			
 			//update the ui here
 			if (autoCalled)
-				listener.getSong(true, false);
+				advance_(song);
 			
 			if (song == null) {
 				//only get the next song, if the user has not provided one
-				song = listener.getSong(true, false);
+				song = nextSong_(false);
 				if (song == null) {
 					//it's no longer possible to proceed
 					return;
 				}
 			}
 			
-			//try to play the given file
-			errMsg = playerCreate_(song, false, true);
-			if (errMsg != null) {
-				cleanupMsg("Erro ao criar ", song.getTitle(), errMsg, autoCalled);
-				
-				if (autoCalled) {
-					//keep on trying...
-					song = null;
+			if (autoCalled && UnplayableMemo.isUnplayable(song)) {
+				//it has failed before, so go straight to the next one
+				song = null;
+			} else {
+				//try to play the given file
+				errMsg = playerCreateAndResume_(song);
+				if (autoCalled && errMsg == null) {
+					handoff.transitionStarted(System.currentTimeMillis());
+				}
+				if (errMsg != null) {
+					rememberFailure_(song);
+					cleanupMsg("Erro ao criar ", song.getTitle(), errMsg, autoCalled);
+					
+					if (autoCalled) {
+						//keep on trying...
+						song = null;
+					} else {
+						//give up here
+						return;
+					}
 				} else {
-					//give up here
-					return;
+					//the user may have insisted on a song that used to fail
+					if (!autoCalled) UnplayableMemo.remove(song);
+					currentSong = song;
 				}
-			} else {
-				currentSong = song;
 			}
 		}
 		
+		startEnd = System.currentTimeMillis();
+		
 		System.gc();
 		
 		if (autoCalled && song == null) {
 			//try to cycle throught the songs in order to find the
 			//next valid song
 			for (; ; ) {
-				currentSong = listener.getSong(true, false);
+				currentSong = nextSong_(false);
 				if (currentSong == null) break;
-				errMsg = playerCreate_(currentSong, false, true);
+				//files already known to fail are skipped without even
+				//asking MMAPI about them
+				if (UnplayableMemo.isUnplayable(currentSong)) continue;
+				errMsg = playerCreateAndResume_(currentSong);
 				if (errMsg != null) {
+					rememberFailure_(currentSong);
 					cleanupMsg("Erro ao abrir ", currentSong.getTitle(), errMsg, autoCalled);
 				} else {
+					startEnd = System.currentTimeMillis();
 					break;
 				}
 			}
 		}
 		
 		finalPreparations_();
+		
+		//nothing will be heard
+		if (mplayer == null) trace.cancel();
+		
+		if (mplayer != null) {
+			final int i = ((Behaviour.environmentGetLoadNextSong() && Behaviour.environmentGetPrefetchDelayMS() > 0) ? 1 : 0);
+			startupCount[i]++;
+			startupMS[i] += (int)(startEnd - startBegin);
+			startupBusyMS[i] += (int)(System.currentTimeMillis() - startBegin);
+		}
 	}
 	
 	private final void clear_(boolean nextPlayer) {
@@ -888,6 +1826,9 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 	}
 	
 	private final void pause_() {
+		trace.cancel();
+		//pausing in the middle of a crossfade simply finishes it
+		fadeEnd_();
 		if (mplayer != null) {
 			//try to pause/resume the current file
 			if (paused) {
@@ -896,8 +1837,7 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 					if (!radioMode && reloadTime) {
 						//we paused due to something that went wrong..
 						//try to perform a seek to the last position
-						mplayer.prefetch();
-						mplayer.setMediaTime((long)timeTrackMS * 1000);
+						seekTo_(currentSong, timeTrackMS);
 					}
 					mplayer.start();
 				} catch (Throwable ex) {
@@ -907,6 +1847,7 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 				}
 				reloadTime = false;
 				paused = false;
+				handoff.restart();
 				if (resetVolume) {
 					resetVolume = false;
 					resetGlobalVolume();
@@ -919,19 +1860,25 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 					return;
 				}
 				paused = true;
+				handoff.restart();
+				bookmark_(false);
+				Bookmarks.saveIfDue();
 				System.gc();
 			}
 		} else {
 			//simulate a play event
-			start_(listener.getSong(false, false));
+			start_(listener.getSong(false, false), false);
 		}
 	}
 	
 	private final void stop_(boolean fullStop) {
+		fadeEnd_();
 		//kill the update timer (if it exists)
 		clear_(false);
-		if (fullStop)
+		if (fullStop) {
 			clear_(true);
+			pipeline.clear();
+		}
 		paused = false;
 		playAfterRecovery = false;
 		reloadTime = false;
@@ -939,5 +1886,9 @@ public final class Player implements javax.microedition.media.PlayerListener, Ru
 		timeSec = 0;
 		totalTime = "";
 		totalTimeMS = -1;
+		waitMS = TickMS;
+		prefetchAtMS = -1;
+		mediaOffsetMS = 0;
+		handoff.reset();
 	}
 }
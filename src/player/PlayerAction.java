@@ -37,8 +37,6 @@ final class PlayerAction {
 	public static final int END_OF_MEDIA = 2;
 	public static final int PLAY_SONG = 1;
 	public static final int TERMINATE = 0;
-	public static final int VOLUME_DOWN = -1; 
-	public static final int VOLUME_UP = -2;
 	public static final int PAUSE = -3;
 	public static final int CLEAR_NEXT = -4;
 	public static final int STOP = -5;
@@ -51,84 +49,49 @@ final class PlayerAction {
 	public static final int DEVICE_AVAILABLE = -12;
 	public static final int STOPPED = -13;
 	public static final int SET_VOLUME = -14;
-
-	private final int actionNumber;
-	private final javax.microedition.media.Player player;
-	private final Object actionObject;
+	public static final int CANCELLED = -15;
+	public static final int SEEK = -16;
+
+	private int actionNumber;
+	private javax.microedition.media.Player player;
+	private Object actionObject;
+	private int actionValue;
+	private long enqueuedAt;
 	private boolean completed;
+	private final boolean pooled;
 
-	private PlayerAction(int actionNumber, javax.microedition.media.Player player, Object actionObject) {
+	PlayerAction(boolean pooled) {
+		this.pooled = pooled;
+	}
+	
+	final void set(int actionNumber, javax.microedition.media.Player player, Object actionObject, int actionValue) {
 		this.actionNumber = actionNumber;
 		this.player = player;
 		this.actionObject = actionObject;
-	}
-
-	public static PlayerAction endOfMedia(javax.microedition.media.Player player) {
-		return new PlayerAction(END_OF_MEDIA, player, null);
-	}
-
-	public static PlayerAction playSong(Song song) {
-		return new PlayerAction(PLAY_SONG, null, song);
-	}
-
-	public static PlayerAction terminate() {
-		return new PlayerAction(TERMINATE, null, null);
+		this.actionValue = actionValue;
+		this.enqueuedAt = System.currentTimeMillis();
+		this.completed = false;
 	}
 	
-	public static PlayerAction setVolume(int volume) {
-		return new PlayerAction(SET_VOLUME, null, new Integer(volume));
+	final void setValue(int actionValue) {
+		this.actionValue = actionValue;
 	}
 	
-	public static PlayerAction volumeDown() {
-		return new PlayerAction(VOLUME_DOWN, null, null);
-	}
-
-	public static PlayerAction volumeUp() {
-		return new PlayerAction(VOLUME_UP, null, null);
-	}
-
-	public static PlayerAction pause(javax.microedition.media.Player player) {
-		return new PlayerAction(PAUSE, player, null);
-	}
-
-	public static PlayerAction clearNext() {
-		return new PlayerAction(CLEAR_NEXT, null, null);
-	}
-
-	public static PlayerAction stop() {
-		return new PlayerAction(STOP, null, null);
-	}
-
-	public static PlayerAction stopAndClear() {
-		return new PlayerAction(STOP_AND_CLEAR, null, null);
+	final void cancel() {
+		//the action stays in the queue, but it is ignored when dequeued
+		actionNumber = CANCELLED;
+		player = null;
+		actionObject = null;
+		setCompleted();
 	}
-
-	public static PlayerAction reloadLast() {
-		return new PlayerAction(RELOAD_LAST, null, null);
-	}
-
-	public static PlayerAction clearVolumeControl() {
-		return new PlayerAction(CLEAR_VOLUME_CONTROL, null, null);
-	}
-
-	public static PlayerAction updateDuration(javax.microedition.media.Player player, Long duration) {
-		return new PlayerAction(UPDATE_DURATION, player, duration);
-	}
-
-	public static PlayerAction error(javax.microedition.media.Player player, String errorMessage) {
-		return new PlayerAction(ERROR, player, errorMessage);
-	}
-
-	public static PlayerAction deviceAvailable(javax.microedition.media.Player player) {
-		return new PlayerAction(DEVICE_AVAILABLE, player, null);
-	}
-
-	public static PlayerAction deviceUnavailable(javax.microedition.media.Player player) {
-		return new PlayerAction(DEVICE_UNAVAILABLE, player, null);
+	
+	final void release() {
+		player = null;
+		actionObject = null;
 	}
-
-	public static PlayerAction stopped(javax.microedition.media.Player player) {
-		return new PlayerAction(STOPPED, player, null);
+	
+	final boolean isPooled() {
+		return pooled;
 	}
 	
 	public final int getNumber() {
@@ -139,6 +102,14 @@ final class PlayerAction {
 		return actionObject;
 	}
 
+	public final int getValue() {
+		return actionValue;
+	}
+
+	public final long getEnqueuedAt() {
+		return enqueuedAt;
+	}
+
 	public final javax.microedition.media.Player getPlayer() {
 		return player;
 	}
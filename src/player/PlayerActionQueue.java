@@ -0,0 +1,175 @@
+//
+// PlayerActionQueue.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/PlayerActionQueue.java
+//
+
+package player;
+
+final class PlayerActionQueue {
+	private static final int Capacity = 16;
+	
+	private PlayerAction[] actions;
+	private int first, count;
+	private final PlayerAction[] pool;
+	private int poolCount;
+	
+	public PlayerActionQueue() {
+		actions = new PlayerAction[Capacity];
+		pool = new PlayerAction[Capacity];
+		for (int i = 0; i < Capacity; i++) {
+			pool[i] = new PlayerAction(true);
+		}
+		poolCount = Capacity;
+	}
+	
+	public final synchronized int size() {
+		return count;
+	}
+	
+	private final PlayerAction obtain() {
+		//only allocate a new action if all pooled actions are in use
+		return ((poolCount > 0) ? pool[--poolCount] : new PlayerAction(true));
+	}
+	
+	public final synchronized void recycle(PlayerAction action) {
+		if (action.isPooled()) {
+			action.release();
+			if (poolCount < pool.length) {
+				pool[poolCount++] = action;
+			}
+		}
+	}
+	
+	private final void grow() {
+		//this should not happen, since most actions are coalesced, but
+		//player events must never be lost
+		final PlayerAction[] tmp = new PlayerAction[actions.length << 1];
+		for (int i = 0; i < count; i++) {
+			tmp[i] = actions[(first + i) % actions.length];
+		}
+		actions = tmp;
+		first = 0;
+	}
+	
+	private final void addLast(PlayerAction action) {
+		if (count == actions.length) grow();
+		actions[(first + count) % actions.length] = action;
+		count++;
+	}
+	
+	private final void addFirst(PlayerAction action) {
+		if (count == actions.length) grow();
+		first = ((first == 0) ? actions.length : first) - 1;
+		actions[first] = action;
+		count++;
+	}
+	
+	private final PlayerAction findLast(int actionNumber) {
+		for (int i = count - 1; i >= 0; i--) {
+			final PlayerAction a = actions[(first + i) % actions.length];
+			final int n = a.getNumber();
+			if (n == actionNumber) return a;
+			//a seek only moves the song that is playing when it runs, so
+			//it cannot be merged into one queued before a song change
+			if (actionNumber == PlayerAction.SEEK && (n == PlayerAction.PLAY_SONG || n == PlayerAction.STOP || n == PlayerAction.STOP_AND_CLEAR || n == PlayerAction.END_OF_MEDIA || n == PlayerAction.TERMINATE)) return null;
+		}
+		return null;
+	}
+	
+	private final void cancelAll(int actionNumber) {
+		for (int i = 0; i < count; i++) {
+			final PlayerAction a = actions[(first + i) % actions.length];
+			if (a.getNumber() == actionNumber) a.cancel();
+		}
+	}
+	
+	private final void add(PlayerAction action) {
+		switch (action.getNumber()) {
+			case PlayerAction.TERMINATE:
+			case PlayerAction.STOP:
+			case PlayerAction.STOP_AND_CLEAR:
+				//stopping supersedes any pending request to play
+				//or to pause/resume, and must be executed before the
+				//other pending actions
+				cancelAll(PlayerAction.PLAY_SONG);
+				cancelAll(PlayerAction.PAUSE);
+				addFirst(action);
+				break;
+			case PlayerAction.PLAY_SONG:
+				//only the newest song matters
+				cancelAll(PlayerAction.PLAY_SONG);
+				addLast(action);
+				break;
+			default:
+				addLast(action);
+				break;
+		}
+		this.notify();
+	}
+	
+	public final synchronized void enqueue(int actionNumber, javax.microedition.media.Player player, Object actionObject, int actionValue) {
+		if (actionNumber == PlayerAction.SET_VOLUME || actionNumber == PlayerAction.SEEK) {
+			//the volume and the seek position are absolute, so only the
+			//last value matters
+			final PlayerAction a = findLast(actionNumber);
+			if (a != null) {
+				a.setValue(actionValue);
+				return;
+			}
+		}
+		final PlayerAction action = obtain();
+		action.set(actionNumber, player, actionObject, actionValue);
+		add(action);
+	}
+	
+	public final synchronized PlayerAction enqueueWaitable(int actionNumber) {
+		//actions someone is waiting for cannot be returned to the pool
+		final PlayerAction action = new PlayerAction(false);
+		action.set(actionNumber, null, null, 0);
+		add(action);
+		return action;
+	}
+	
+	public final synchronized PlayerAction dequeue() {
+		while (count > 0) {
+			final PlayerAction action = actions[first];
+			actions[first] = null;
+			first++;
+			if (first == actions.length) first = 0;
+			count--;
+			if (action.getNumber() != PlayerAction.CANCELLED) {
+				return action;
+			}
+			recycle(action);
+		}
+		return null;
+	}
+}
@@ -34,9 +34,12 @@
 package player;
 
 public interface PlayerListener {
-	public void stateChanged();
+	public void stateChanged(int changes); //PlayerState.CHANGED_* flags, merged over a few milliseconds
 	public void resetSongCycling();
 	public Song getSong(boolean nextSong, boolean justPeakNext); //if not possible, return null
+	public Song peekSong(int distance); //distance 1 is the song getSong(true, true) returns, -1 is the previous one; if not possible, return null
+	public Song getSelectedSong(); //the song under the cursor, which the user may be about to play; null if none
+	public boolean isTimeVisible(); //false allows the player to track the time less often
 	public void attached();
 	public void detached();
 }
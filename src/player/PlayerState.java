@@ -0,0 +1,89 @@
+//
+// PlayerState.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/PlayerState.java
+//
+
+package player;
+
+public final class PlayerState {
+	public static final int STOPPED = 0;
+	public static final int PAUSED = 1;
+	public static final int PLAYING = 2;
+	public static final int RECEIVING = 3;
+	
+	//what differs from the previous snapshot
+	public static final int CHANGED_SONG = 0x01;
+	public static final int CHANGED_STATUS = 0x02;
+	public static final int CHANGED_TIME = 0x04;
+	public static final int CHANGED_VOLUME = 0x08;
+	
+	private final Song song;
+	private final int status, timeSec, volume;
+	private final String length;
+	
+	PlayerState(Song song, int status, int timeSec, String length, int volume) {
+		this.song = song;
+		this.status = status;
+		this.timeSec = timeSec;
+		this.length = length;
+		this.volume = volume;
+	}
+	
+	final int diff(Song song, int status, int timeSec, String length, int volume) {
+		int changes = 0;
+		if (this.song != song) changes |= CHANGED_SONG;
+		if (this.status != status) changes |= CHANGED_STATUS;
+		if (this.timeSec != timeSec || (this.length != length && (length == null || !length.equals(this.length)))) changes |= CHANGED_TIME;
+		if (this.volume != volume) changes |= CHANGED_VOLUME;
+		return changes;
+	}
+	
+	public final Song getSong() {
+		return song;
+	}
+	
+	public final int getStatus() {
+		return status;
+	}
+	
+	public final int getTimeSec() {
+		//only meaningful while PLAYING
+		return timeSec;
+	}
+	
+	public final String getLength() {
+		return length;
+	}
+	
+	public final int getVolume() {
+		return volume;
+	}
+}
@@ -0,0 +1,147 @@
+//
+// PrefetchGovernor.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/PrefetchGovernor.java
+//
+
+package player;
+
+final class PrefetchGovernor {
+	public static final int SKIP = 0;
+	public static final int REALIZE = 1;
+	public static final int PREFETCH = 2;
+	
+	private static final int HistoryLength = 8;
+	private static final int PressureCheckMS = 1000;
+	private static final int OutOfMemoryBackoff = 2; //transitions skipped after an OutOfMemoryError
+	
+	//heap cost (in bytes) of the last realizations and prefetches, as
+	//seen by Runtime.freeMemory()
+	private final int[] realizeCosts, prefetchCosts;
+	private int realizeCount, prefetchCount, realizeIndex, prefetchIndex;
+	private int backoff;
+	private boolean backedOff; //a decision of the current transition was skipped by the backoff
+	private long lastPressureCheck;
+	private final int[] decisions;
+	private int releases;
+	
+	public PrefetchGovernor() {
+		realizeCosts = new int[HistoryLength];
+		prefetchCosts = new int[HistoryLength];
+		decisions = new int[3];
+	}
+	
+	private static int maximum(int[] costs, int count) {
+		//the worst recent case, since a wrong guess may cost the song
+		//currently playing
+		int m = 0;
+		for (int i = count - 1; i >= 0; i--) {
+			if (costs[i] > m) m = costs[i];
+		}
+		return m;
+	}
+	
+	public final void transition() {
+		//the backoff is counted in transitions, not in decisions, as
+		//each transition may prepare several players
+		if (backedOff) {
+			backedOff = false;
+			backoff--;
+		}
+	}
+	
+	public final int decide(boolean counted) {
+		//counted is false when deciding again for the same player (a
+		//promotion, or a retry), so the statistics are not inflated
+		int d;
+		if (backoff > 0) {
+			backedOff = true;
+			d = SKIP;
+		} else {
+			final Runtime rt = Runtime.getRuntime();
+			final long total = rt.totalMemory();
+			final long free = rt.freeMemory();
+			//always leave 1/8 of the heap for the current player and the UI
+			final long spare = free - (total >> 3);
+			//with no history yet, assume a prefetched player takes 1/8 of
+			//the heap, and that realizing one costs next to nothing
+			final long realize = ((realizeCount == 0) ? 0 : maximum(realizeCosts, realizeCount));
+			final long prefetch = ((prefetchCount == 0) ? (total >> 3) : maximum(prefetchCosts, prefetchCount));
+			if (spare > realize + prefetch) d = PREFETCH;
+			else if (spare > realize) d = REALIZE;
+			else d = SKIP;
+		}
+		if (counted) decisions[d]++;
+		return d;
+	}
+	
+	public final void realized(long cost) {
+		realizeCosts[realizeIndex] = ((cost < 0) ? 0 : (int)cost);
+		realizeIndex = (realizeIndex + 1) % HistoryLength;
+		if (realizeCount < HistoryLength) realizeCount++;
+	}
+	
+	public final void prefetched(long cost) {
+		prefetchCosts[prefetchIndex] = ((cost < 0) ? 0 : (int)cost);
+		prefetchIndex = (prefetchIndex + 1) % HistoryLength;
+		if (prefetchCount < HistoryLength) prefetchCount++;
+	}
+	
+	public final void outOfMemory() {
+		backoff = OutOfMemoryBackoff;
+	}
+	
+	public final boolean isLow() {
+		//below this, not even realizing is worth it
+		final Runtime rt = Runtime.getRuntime();
+		return (rt.freeMemory() <= (rt.totalMemory() >> 3));
+	}
+	
+	public final boolean isUnderPressure(long now) {
+		//sampled at most once per second, as the player thread may tick
+		//much more often than that
+		if ((now - lastPressureCheck) < PressureCheckMS) return false;
+		lastPressureCheck = now;
+		final Runtime rt = Runtime.getRuntime();
+		return (rt.freeMemory() < (rt.totalMemory() >> 4));
+	}
+	
+	public final void released() {
+		releases++;
+	}
+	
+	public final int getDecisionCount(int decision) {
+		return decisions[decision];
+	}
+	
+	public final int getReleaseCount() {
+		return releases;
+	}
+}
@@ -0,0 +1,150 @@
+//
+// PrefetchPipeline.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/PrefetchPipeline.java
+//
+
+package player;
+
+final class PrefetchPipeline {
+	public static final int MaximumSlots = 3;
+	
+	private final Song[] songs;
+	private final javax.microedition.media.Player[] players;
+	private final boolean[] prefetched;
+	private int count;
+	
+	public PrefetchPipeline() {
+		songs = new Song[MaximumSlots];
+		players = new javax.microedition.media.Player[MaximumSlots];
+		prefetched = new boolean[MaximumSlots];
+	}
+	
+	public final int size() {
+		return count;
+	}
+	
+	public final Song getSong(int index) {
+		return songs[index];
+	}
+	
+	public final javax.microedition.media.Player getPlayer(int index) {
+		return players[index];
+	}
+	
+	public final boolean isPrefetched(int index) {
+		return prefetched[index];
+	}
+	
+	public final int indexOf(Song song) {
+		for (int i = 0; i < count; i++) {
+			if (songs[i] == song) return i;
+		}
+		return -1;
+	}
+	
+	public final int indexOf(javax.microedition.media.Player player) {
+		for (int i = 0; i < count; i++) {
+			if (players[i] == player) return i;
+		}
+		return -1;
+	}
+	
+	public final boolean add(Song song, javax.microedition.media.Player player, boolean isPrefetched) {
+		if (count >= MaximumSlots) return false;
+		songs[count] = song;
+		players[count] = player;
+		prefetched[count] = isPrefetched;
+		count++;
+		return true;
+	}
+	
+	public final void setPrefetched(int index) {
+		prefetched[index] = true;
+	}
+	
+	public final void truncate(int newCount) {
+		//drop the slots that are furthest ahead
+		if (newCount < 0) newCount = 0;
+		while (count > newCount) {
+			count--;
+			final javax.microedition.media.Player p = players[count];
+			songs[count] = null;
+			players[count] = null;
+			prefetched[count] = false;
+			if (p != null) {
+				try {
+					p.close();
+				} catch (Throwable ex) {
+				}
+			}
+		}
+	}
+	
+	public final void clear() {
+		truncate(0);
+	}
+	
+	public final void remove(int index) {
+		final javax.microedition.media.Player p = players[index];
+		for (int i = index + 1; i < count; i++) {
+			songs[i - 1] = songs[i];
+			players[i - 1] = players[i];
+			prefetched[i - 1] = prefetched[i];
+		}
+		count--;
+		songs[count] = null;
+		players[count] = null;
+		prefetched[count] = false;
+		if (p != null) {
+			try {
+				p.close();
+			} catch (Throwable ex) {
+			}
+		}
+	}
+	
+	public final javax.microedition.media.Player takeFirst() {
+		//removes the first slot without closing its player
+		if (count <= 0) return null;
+		final javax.microedition.media.Player p = players[0];
+		players[0] = null;
+		remove(0);
+		return p;
+	}
+	
+	public final void trim(PrefetchGovernor governor) {
+		//release the slots furthest ahead first when memory gets low
+		while (count > 0 && governor.isLow()) {
+			truncate(count - 1);
+			System.gc();
+		}
+	}
+}
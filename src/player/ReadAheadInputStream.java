@@ -0,0 +1,195 @@
+//
+// ReadAheadInputStream.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/ReadAheadInputStream.java
+//
+
+package player;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+final class ReadAheadInputStream extends InputStream implements Runnable {
+	private final InputStream in;
+	private final javax.microedition.io.Connection connection;
+	private final byte[][] buffers;
+	private final int[] lengths;
+	private final int window;
+	private final byte[] single;
+	private int readIndex, readPos, filled; //buffers[readIndex] is being consumed, and filled buffers are ready
+	private boolean eof, closed;
+	private IOException error;
+	
+	//shared by every stream, for the About screen
+	private static int reads, stalls, stallMS, fillSum;
+	
+	public ReadAheadInputStream(InputStream in, javax.microedition.io.Connection connection, int window) {
+		//window is split in two halves: while MMAPI reads one of them,
+		//the reader thread fills the other
+		this.in = in;
+		this.connection = connection;
+		this.window = window;
+		this.buffers = new byte[][] { new byte[window >> 1], new byte[window >> 1] };
+		this.lengths = new int[2];
+		this.single = new byte[1];
+		final Thread thread = new Thread(this, "Read Ahead");
+		//it must win the card over the metadata scanner and the browser
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+	
+	public static boolean isSupported(String fileName) {
+		return (getContentType(fileName) != null);
+	}
+	
+	public static String getContentType(String fileName) {
+		//MMAPI cannot guess the format of a stream by its name
+		fileName = fileName.toLowerCase();
+		if (fileName.endsWith(".mp3")) return "audio/mpeg";
+		if (fileName.endsWith(".wav")) return "audio/x-wav";
+		if (fileName.endsWith(".aac")) return "audio/aac";
+		if (fileName.endsWith(".m4a") || fileName.endsWith(".mp4")) return "audio/mp4";
+		if (fileName.endsWith(".amr")) return "audio/amr";
+		if (fileName.endsWith(".mid") || fileName.endsWith(".midi")) return "audio/midi";
+		return null;
+	}
+	
+	public final void run() {
+		for (; ; ) {
+			final int w;
+			synchronized (this) {
+				while (filled == 2 && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+					}
+				}
+				if (closed) return;
+				w = (readIndex + filled) & 1;
+			}
+			final byte[] b = buffers[w];
+			int length = 0;
+			boolean end = false;
+			IOException ex = null;
+			try {
+				while (length < b.length) {
+					final int n = in.read(b, length, b.length - length);
+					if (n < 0) {
+						end = true;
+						break;
+					}
+					length += n;
+				}
+			} catch (IOException e) {
+				ex = e;
+			}
+			synchronized (this) {
+				if (closed) return;
+				lengths[w] = length;
+				if (length > 0) filled++;
+				eof = end;
+				error = ex;
+				notifyAll();
+				if (end || ex != null) return;
+			}
+		}
+	}
+	
+	public final synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (len <= 0) return 0;
+		if (filled == 0 && !eof && error == null && !closed) {
+			//an underrun: MMAPI is reading faster than the card
+			final long start = System.currentTimeMillis();
+			do {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+				}
+			} while (filled == 0 && !eof && error == null && !closed);
+			synchronized (ReadAheadInputStream.class) {
+				stalls++;
+				stallMS += (int)(System.currentTimeMillis() - start);
+			}
+		}
+		if (filled == 0) {
+			if (error != null) throw error;
+			return -1;
+		}
+		synchronized (ReadAheadInputStream.class) {
+			reads++;
+			fillSum += (int)((((long)(lengths[readIndex] - readPos) + ((filled == 2) ? lengths[readIndex ^ 1] : 0)) * 100) / window);
+		}
+		if (len > lengths[readIndex] - readPos) len = lengths[readIndex] - readPos;
+		System.arraycopy(buffers[readIndex], readPos, b, off, len);
+		readPos += len;
+		if (readPos == lengths[readIndex]) {
+			//hand this half back to the reader thread
+			readIndex ^= 1;
+			readPos = 0;
+			filled--;
+			notifyAll();
+		}
+		return len;
+	}
+	
+	public final int read() throws IOException {
+		return ((read(single, 0, 1) <= 0) ? -1 : (single[0] & 0xFF));
+	}
+	
+	public final synchronized int available() throws IOException {
+		return ((filled == 0) ? 0 : ((lengths[readIndex] - readPos) + ((filled == 2) ? lengths[readIndex ^ 1] : 0)));
+	}
+	
+	public final void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		//closing the source also wakes up the reader thread, if it is
+		//blocked in the middle of a read
+		try {
+			in.close();
+		} finally {
+			if (connection != null) connection.close();
+		}
+	}
+	
+	static synchronized int getStallCount() {
+		return stalls;
+	}
+	
+	static synchronized int getStallMS() {
+		return stallMS;
+	}
+	
+	static synchronized int getAverageFillPercent() {
+		return ((reads == 0) ? -1 : (fillSum / reads));
+	}
+}
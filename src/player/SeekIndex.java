@@ -0,0 +1,384 @@
+//
+// SeekIndex.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/SeekIndex.java
+//
+package player;
+
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+final class SeekIndex implements Runnable {
+	private static final int MaximumPoints = 4096; //16 KB per index, whatever the duration
+	private static final int MaximumBytes = 0x8000; //all the cached indices together
+	private static final int BufferLength = 4096;
+	private static final int MaximumResyncLength = 0x10000;
+	
+	//path -> SeekIndex, least recently used first
+	private static final Hashtable cache = new Hashtable(4);
+	private static final Vector used = new Vector(4);
+	private static int byteCount;
+	private static String buildingPath;
+	
+	//offsets[k] is the byte offset of the first frame at (or right
+	//after) second k * step, and long files get a larger step, which
+	//locate() makes up for by walking the frames of the last step
+	private final int[] offsets;
+	private final int step, sampleRate, samples;
+	private final Song song; //only used while building
+	
+	private SeekIndex(int[] offsets, int count, int step, int sampleRate, int samples) {
+		if (count < offsets.length) {
+			final int[] x = new int[count];
+			System.arraycopy(offsets, 0, x, 0, count);
+			offsets = x;
+		}
+		this.offsets = offsets;
+		this.step = step;
+		this.sampleRate = sampleRate;
+		this.samples = samples;
+		this.song = null;
+	}
+	
+	private SeekIndex(Song song) {
+		this.offsets = null;
+		this.step = 0;
+		this.sampleRate = 0;
+		this.samples = 0;
+		this.song = song;
+	}
+	
+	static boolean isSupported(String fileName) {
+		return fileName.toLowerCase().endsWith(".mp3");
+	}
+	
+	static synchronized SeekIndex get(Song song) {
+		final String path = song.getFileName();
+		final SeekIndex index = (SeekIndex)cache.get(path);
+		if (index != null) {
+			used.removeElement(path);
+			used.addElement(path);
+		}
+		return index;
+	}
+	
+	static synchronized void request(Song song) {
+		//scanning a long VBR file may take a while, so the index is built
+		//by a thread of its own, and the seeks use the player's own
+		//setMediaTime() until it is ready
+		final String path = song.getFileName();
+		if (buildingPath != null || cache.get(path) != null) return;
+		buildingPath = path;
+		final Thread thread = new Thread(new SeekIndex(song), "Seek Index");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+	
+	static synchronized void clear() {
+		cache.clear();
+		used.removeAllElements();
+		byteCount = 0;
+	}
+	
+	static synchronized int getByteCount() {
+		return byteCount;
+	}
+	
+	private static synchronized void put(String path, SeekIndex index) {
+		buildingPath = null;
+		if (index == null) return;
+		final int bytes = index.offsets.length << 2;
+		while (used.size() > 0 && byteCount + bytes > MaximumBytes) {
+			final SeekIndex old = (SeekIndex)cache.remove(used.elementAt(0));
+			used.removeElementAt(0);
+			byteCount -= old.offsets.length << 2;
+		}
+		cache.put(path, index);
+		used.addElement(path);
+		byteCount += bytes;
+	}
+	
+	public final void run() {
+		put(song.getFileName(), build(song));
+	}
+	
+	final void locate(Song song, int ms, int[] position) {
+		//position[0] = byte offset of the frame, position[1] = the second
+		//it starts at (within a frame of ms)
+		int k = ms / (step * 1000);
+		if (k < 0) k = 0;
+		else if (k >= offsets.length) k = offsets.length - 1;
+		position[0] = offsets[k];
+		position[1] = k * step;
+		final int s = (ms / 1000) - position[1];
+		if (s > 0) refine(song, s, position);
+	}
+	
+	private final void refine(Song song, int s, int[] position) {
+		//only the headers of the frames of less than one step are read,
+		//and the coarse position is kept if anything looks wrong
+		javax.microedition.io.file.FileConnection fc = null;
+		InputStream in = null;
+		try {
+			fc = URLResolver.openFile(song);
+			in = fc.openInputStream();
+			if (!TagReader.skipFully(in, position[0])) return;
+			final byte[] b = new byte[4];
+			final long target = (long)s * sampleRate;
+			long offset = position[0], samplesBefore = 0;
+			int seconds = 0;
+			while (samplesBefore < target) {
+				if (!TagReader.readFully(in, b, 0, 4)) return;
+				final int frame = DurationEstimator.frameLength(b, 0);
+				if (frame < 4) return;
+				samplesBefore += samples;
+				offset += frame;
+				if (!TagReader.skipFully(in, frame - 4)) return;
+				seconds = (int)(samplesBefore / sampleRate);
+			}
+			position[0] = (int)offset;
+			position[1] += seconds;
+		} catch (Throwable ex) {
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (Throwable ex) {
+			}
+			try {
+				if (fc != null) fc.close();
+			} catch (Throwable ex) {
+			}
+		}
+	}
+	
+	private static int stepFor(int durationS) {
+		return ((durationS < MaximumPoints) ? 1 : ((durationS / MaximumPoints) + 1));
+	}
+	
+	private static int readUpTo(InputStream in, byte[] b, int offset, int length) throws Exception {
+		int total = 0;
+		while (total < length) {
+			final int n = in.read(b, offset + total, length - total);
+			if (n < 0) break;
+			total += n;
+		}
+		return total;
+	}
+	
+	private static int readBE16(byte[] b, int offset) {
+		return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+	}
+	
+	private static SeekIndex build(Song song) {
+		javax.microedition.io.file.FileConnection fc = null;
+		InputStream in = null;
+		try {
+			fc = URLResolver.openFile(song);
+			final long size = fc.fileSize();
+			in = fc.openInputStream();
+			final byte[] b = new byte[BufferLength];
+			if (!TagReader.readFully(in, b, 0, 10)) return null;
+			long start = 0; //file offset of b[0]
+			int length = 10;
+			if (DurationEstimator.matches(b, 0, "ID3") && b[3] >= 2 && b[3] <= 4) {
+				final long tag = 10 + (((b[6] & 0x7F) << 21) | ((b[7] & 0x7F) << 14) | ((b[8] & 0x7F) << 7) | (b[9] & 0x7F)) + (((b[5] & 0x10) != 0) ? 10 : 0);
+				if (!TagReader.skipFully(in, tag - 10)) return null;
+				start = tag;
+				length = 0;
+			}
+			length += readUpTo(in, b, length, BufferLength - length);
+			
+			//the first frame is only trusted when the next one follows it
+			int p = 0;
+			for (; p + 4 <= length; p++) {
+				final int frame = DurationEstimator.frameLength(b, p);
+				if (frame != 0 && (p + frame + 4 > length || DurationEstimator.frameLength(b, p + frame) != 0)) break;
+			}
+			if (p + 4 > length) return null;
+			final long first = start + p;
+			final int version = (b[p + 1] >> 3) & 3;
+			final int layer = (b[p + 1] >> 1) & 3;
+			final int sampleRate = DurationEstimator.sampleRate(version, (b[p + 2] >> 2) & 3);
+			final int samples = DurationEstimator.samplesPerFrame(version, layer);
+			final boolean mono = (((b[p + 3] >> 6) & 3) == 3);
+			
+			//Xing/Info: flags, then frames, bytes and the 100-entry TOC
+			final int xing = p + 4 + ((version == 3) ? (mono ? 17 : 32) : (mono ? 9 : 17));
+			if (xing + 8 <= length && (DurationEstimator.matches(b, xing, "Xing") || DurationEstimator.matches(b, xing, "Info"))) {
+				final int flags = DurationEstimator.readBE(b, xing + 4);
+				int q = xing + 8;
+				if ((flags & 5) == 5 && q + 4 <= length) {
+					final int frames = DurationEstimator.readBE(b, q);
+					q += 4;
+					long bytes = size - first;
+					if ((flags & 2) != 0) {
+						if (q + 4 <= length) bytes = DurationEstimator.readBE(b, q) & 0xFFFFFFFFL;
+						q += 4;
+					}
+					if (frames > 0 && q + 100 <= length) {
+						final int durationMS = (int)(((long)frames * samples * 1000) / sampleRate);
+						final long[] times = new long[101], offsets = new long[101];
+						for (int i = 0; i <= 100; i++) {
+							times[i] = ((long)i * durationMS) / 100;
+							offsets[i] = (((i < 100) ? (b[q + i] & 0xFF) : 256) * bytes) >> 8;
+						}
+						return interpolate(times, offsets, 101, durationMS, first, sampleRate, samples);
+					}
+				}
+			}
+			
+			//VBRI: a table of byte counts, each one covering the same
+			//number of frames
+			final int vbri = p + 4 + 32;
+			if (vbri + 26 <= length && DurationEstimator.matches(b, vbri, "VBRI")) {
+				final int frames = DurationEstimator.readBE(b, vbri + 14);
+				final int entries = readBE16(b, vbri + 18);
+				final int scale = readBE16(b, vbri + 20);
+				final int entrySize = readBE16(b, vbri + 22);
+				final int framesPerEntry = readBE16(b, vbri + 24);
+				if (frames > 0 && entries > 0 && entrySize >= 1 && entrySize <= 4 && vbri + 26 + (entries * entrySize) <= length) {
+					final long[] times = new long[entries + 1], offsets = new long[entries + 1];
+					int q = vbri + 26;
+					for (int i = 1; i <= entries; i++) {
+						int x = 0;
+						for (int j = 0; j < entrySize; j++) {
+							x = (x << 8) | (b[q++] & 0xFF);
+						}
+						times[i] = ((long)i * framesPerEntry * samples * 1000) / sampleRate;
+						offsets[i] = offsets[i - 1] + ((long)x * scale);
+					}
+					return interpolate(times, offsets, entries + 1, (int)(((long)frames * samples * 1000) / sampleRate), first, sampleRate, samples);
+				}
+			}
+			
+			//without a table, constant bitrate files are just a straight line
+			final int bitrateIndex = (b[p + 2] >> 4) & 0xF;
+			boolean cbr = true;
+			int frames = 0;
+			for (int r = p; r + 4 <= length && frames < 8; frames++) {
+				final int frame = DurationEstimator.frameLength(b, r);
+				if (frame == 0) break;
+				if (((b[r + 2] >> 4) & 0xF) != bitrateIndex) {
+					cbr = false;
+					break;
+				}
+				r += frame;
+			}
+			if (cbr && frames >= 3) {
+				final int bytesPerSecond = DurationEstimator.bitrate(version, layer, bitrateIndex) * 125;
+				final int step = stepFor((int)((size - first) / bytesPerSecond));
+				final int[] index = new int[(int)((size - first) / ((long)bytesPerSecond * step)) + 1];
+				for (int k = 0; k < index.length; k++) {
+					index[k] = (int)(first + ((long)k * step * bytesPerSecond));
+				}
+				return new SeekIndex(index, index.length, step, sampleRate, samples);
+			}
+			
+			return scan(in, b, p, length, start, sampleRate, samples);
+		} catch (Throwable ex) {
+			return null;
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (Throwable ex) {
+			}
+			try {
+				if (fc != null) fc.close();
+			} catch (Throwable ex) {
+			}
+		}
+	}
+	
+	private static SeekIndex interpolate(long[] times, long[] offsets, int count, int durationMS, long first, int sampleRate, int samples) {
+		if (durationMS <= 0) return null;
+		final int step = stepFor(durationMS / 1000);
+		final int[] index = new int[(durationMS / (step * 1000)) + 1];
+		int j = 0;
+		for (int k = 0; k < index.length; k++) {
+			final long t = (long)k * step * 1000;
+			while (j + 2 < count && times[j + 1] <= t) j++;
+			final long span = times[j + 1] - times[j];
+			long offset = offsets[j];
+			if (span > 0 && t > times[j]) offset += ((offsets[j + 1] - offsets[j]) * (t - times[j])) / span;
+			index[k] = (int)(first + offset);
+		}
+		return new SeekIndex(index, index.length, step, sampleRate, samples);
+	}
+	
+	private static SeekIndex scan(InputStream in, byte[] b, int p, int length, long start, int sampleRate, int samples) throws Exception {
+		//walks through every frame header, skipping the audio data, and
+		//notes where each step begins (the step doubles, dropping every
+		//other point, whenever the index would grow past MaximumPoints)
+		final int[] index = new int[MaximumPoints];
+		int count = 0, resync = 0, step = 1;
+		long samplesBefore = 0;
+		for (; ; ) {
+			if (p + 4 > length) {
+				final int left = length - p;
+				System.arraycopy(b, p, b, 0, left);
+				start += p;
+				p = 0;
+				length = left + readUpTo(in, b, left, BufferLength - left);
+				if (length < 4) break;
+			}
+			final int frame = DurationEstimator.frameLength(b, p);
+			if (frame == 0) {
+				//lost sync (junk between frames, or a tag at the end)
+				if (++resync > MaximumResyncLength) break;
+				p++;
+				continue;
+			}
+			resync = 0;
+			while ((long)count * step * sampleRate <= samplesBefore) {
+				if (count == MaximumPoints) {
+					for (int k = 0; k < (MaximumPoints >> 1); k++) {
+						index[k] = index[k << 1];
+					}
+					count = MaximumPoints >> 1;
+					step <<= 1;
+					continue;
+				}
+				index[count++] = (int)(start + p);
+			}
+			samplesBefore += samples;
+			p += frame;
+			if (p > length) {
+				//the frame ends past what has been read
+				if (!TagReader.skipFully(in, p - length)) break;
+				start += p;
+				p = 0;
+				length = 0;
+			}
+		}
+		if (count == 0) return null;
+		return new SeekIndex(index, count, step, sampleRate, samples);
+	}
+}
@@ -0,0 +1,174 @@
+//
+// ShuffleOrder.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/ShuffleOrder.java
+//
+
+package player;
+
+import java.util.Random;
+
+public final class ShuffleOrder {
+	//order[p] is the index (in the list) of the p-th song to be played,
+	//and position[i] is where the i-th song of the list is in order[]
+	private int[] order, position;
+	private int count;
+	private final Random random;
+	
+	public ShuffleOrder() {
+		order = new int[16];
+		position = new int[16];
+		random = new Random();
+	}
+	
+	private final void ensureCapacity(int capacity) {
+		if (capacity <= order.length) return;
+		int c = order.length << 1;
+		if (c < capacity) c = capacity;
+		final int[] o = new int[c], p = new int[c];
+		System.arraycopy(order, 0, o, 0, count);
+		System.arraycopy(position, 0, p, 0, count);
+		order = o;
+		position = p;
+	}
+	
+	private final void swap(int a, int b) {
+		final int x = order[a];
+		order[a] = order[b];
+		order[b] = x;
+		position[order[a]] = a;
+		position[order[b]] = b;
+	}
+	
+	public final int size() {
+		return count;
+	}
+	
+	public final void shuffle(int count, int first) {
+		//Fisher-Yates, then the song given (usually the current one) is
+		//moved to the beginning, so every other song comes after it
+		ensureCapacity(count);
+		this.count = count;
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+			position[i] = i;
+		}
+		for (int i = count - 1; i > 0; i--) {
+			swap(i, random.nextInt(i + 1));
+		}
+		if (first >= 0 && first < count) swap(0, position[first]);
+	}
+	
+	public final void append(int newCount, int current) {
+		//O(1) per song: each new song goes to the end and then swaps
+		//places with a random song still to be played
+		ensureCapacity(newCount);
+		final int from = ((current >= 0 && current < count) ? (position[current] + 1) : 0);
+		while (count < newCount) {
+			order[count] = count;
+			position[count] = count;
+			count++;
+			swap(count - 1, from + random.nextInt(count - from));
+		}
+	}
+	
+	public final void remove(int index, int removedCount) {
+		//list indices after the removed ones go down, just like the
+		//items in the list itself
+		if (removedCount <= 0 || index < 0 || index + removedCount > count) return;
+		int w = 0;
+		for (int p = 0; p < count; p++) {
+			int i = order[p];
+			if (i >= index && i < index + removedCount) continue;
+			if (i >= index + removedCount) i -= removedCount;
+			order[w] = i;
+			position[i] = w;
+			w++;
+		}
+		count = w;
+	}
+	
+	public final void move(int first, int last, int delta) {
+		//the block [first, last] of the list was moved delta items away,
+		//and the items it went over were shifted the other way
+		if (delta == 0 || first < 0 || last >= count || first > last) return;
+		final int n = last - first + 1;
+		for (int p = 0; p < count; p++) {
+			final int i = order[p];
+			if (i >= first && i <= last) order[p] = i + delta;
+			else if (delta < 0 && i >= first + delta && i < first) order[p] = i + n;
+			else if (delta > 0 && i > last && i <= last + delta) order[p] = i - n;
+		}
+		for (int p = 0; p < count; p++) {
+			position[order[p]] = p;
+		}
+	}
+	
+	public final int next(int index) {
+		if (count == 0) return -1;
+		if (index < 0 || index >= count) return order[0];
+		final int p = position[index] + 1;
+		return order[(p >= count) ? 0 : p];
+	}
+	
+	public final int previous(int index) {
+		if (count == 0) return -1;
+		if (index < 0 || index >= count) return order[count - 1];
+		final int p = position[index] - 1;
+		return order[(p < 0) ? (count - 1) : p];
+	}
+	
+	public final void store(Song[] songs) {
+		//each song keeps its own position, so the order is saved along
+		//with the list
+		for (int i = 0; i < songs.length; i++) {
+			songs[i].setShufflePosition((i < count) ? position[i] : -1);
+		}
+	}
+	
+	public final boolean restore(Song[] songs) {
+		//returns false if the positions saved are not a permutation
+		//(lists saved by older versions or without shuffle)
+		final int n = songs.length;
+		ensureCapacity(n);
+		for (int p = 0; p < n; p++) order[p] = -1;
+		for (int i = 0; i < n; i++) {
+			final int p = songs[i].getShufflePosition();
+			if (p < 0 || p >= n || order[p] >= 0) {
+				count = 0;
+				return false;
+			}
+			order[p] = i;
+			position[i] = p;
+		}
+		count = n;
+		return true;
+	}
+}
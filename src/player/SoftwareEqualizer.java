@@ -0,0 +1,206 @@
+//
+// SoftwareEqualizer.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/SoftwareEqualizer.java
+//
+
+package player;
+
+final class SoftwareEqualizer {
+	public static final int MinBandLevel = -1200; //millibels, just like AMMS
+	public static final int MaxBandLevel = 1200;
+	private static final int[] CenterFreqs = { 60000, 230000, 910000, 3600000, 14000000 }; //millihertz, just like AMMS
+	private static final int CoefShift = 28;
+	private static final double Q = 0.9;
+	
+	private final int[] levels;
+	private boolean enabled;
+	private int version;
+	
+	public SoftwareEqualizer() {
+		levels = new int[CenterFreqs.length];
+	}
+	
+	public final int getNumberOfBands() {
+		return CenterFreqs.length;
+	}
+	
+	public final int getCenterFreq(int band) {
+		return CenterFreqs[band];
+	}
+	
+	public final int getBandLevel(int band) {
+		return levels[band];
+	}
+	
+	public final synchronized void setBandLevel(int level, int band) {
+		if (level < MinBandLevel) level = MinBandLevel;
+		else if (level > MaxBandLevel) level = MaxBandLevel;
+		if (levels[band] != level) {
+			levels[band] = level;
+			version++;
+		}
+	}
+	
+	public final boolean isEnabled() {
+		return enabled;
+	}
+	
+	public final synchronized void setEnabled(boolean enabled) {
+		if (this.enabled != enabled) {
+			this.enabled = enabled;
+			version++;
+		}
+	}
+	
+	public final int getVersion() {
+		//the streams compare this value before each block, in order to
+		//redesign their filters only after a change
+		return version;
+	}
+	
+	private static double exp(double x) {
+		//CLDC 1.1 has no Math.exp() nor Math.pow(), and this is only used
+		//while designing the filters, so a short series is enough
+		int k = 0;
+		while (x > 0.5 || x < -0.5) {
+			x *= 0.5;
+			k++;
+		}
+		double term = 1.0, sum = 1.0;
+		for (int i = 1; i < 12; i++) {
+			term *= x / i;
+			sum += term;
+		}
+		while (k-- > 0) {
+			sum *= sum;
+		}
+		return sum;
+	}
+	
+	private static void design(int freq, int level, int sampleRate, int[] coefs, int c) {
+		//peaking filter from the Audio EQ Cookbook (R. Bristow-Johnson)
+		//A = 10 ^ (dB / 40) = e ^ (mB * ln(10) / 4000)
+		final double A = exp(level * 2.302585092994046 / 4000.0);
+		final double w0 = (2.0 * Math.PI * freq) / (1000.0 * sampleRate);
+		final double cs = Math.cos(w0);
+		final double alpha = Math.sin(w0) / (2.0 * Q);
+		final double a0 = 1.0 + (alpha / A);
+		final double one = (double)(1 << CoefShift);
+		coefs[c] = (int)(((1.0 + (alpha * A)) / a0) * one);
+		coefs[c + 1] = (int)(((-2.0 * cs) / a0) * one);
+		coefs[c + 2] = (int)(((1.0 - (alpha * A)) / a0) * one);
+		coefs[c + 3] = (int)(((-2.0 * cs) / a0) * one);
+		coefs[c + 4] = (int)(((1.0 - (alpha / A)) / a0) * one);
+	}
+	
+	public final synchronized int design(int sampleRate, int[] coefs, int[] active) {
+		//fills 5 coefficients per band (b0, b1, b2, a1, a2, in Q28) and
+		//the list of bands that actually change the signal, returning
+		//how many bands there are in that list
+		if (!enabled) return 0;
+		int count = 0;
+		for (int i = 0; i < CenterFreqs.length; i++) {
+			//flat bands, and bands above Nyquist, are skipped
+			if (levels[i] != 0 && (CenterFreqs[i] / 1000) < (sampleRate >> 1)) {
+				design(CenterFreqs[i], levels[i], sampleRate, coefs, i * 5);
+				active[count++] = i;
+			}
+		}
+		return count;
+	}
+	
+	public static void process(byte[] buffer, int offset, int length, int channels, int bandCount, int[] coefs, int[] active, int activeCount, int[] state) {
+		//buffer holds interleaved 16-bit little endian samples, and
+		//state holds x[n-1], x[n-2], y[n-1], y[n-2] per channel per band
+		//(length must be a multiple of 2 * channels)
+		if (activeCount <= 0) return;
+		final int end = offset + length;
+		int ch = 0;
+		for (int i = offset; i < end; i += 2) {
+			int x = (short)((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+			final int sbase = ch * bandCount;
+			for (int a = 0; a < activeCount; a++) {
+				final int b = active[a];
+				final int c = b * 5;
+				final int s = (sbase + b) << 2;
+				final int y = (int)((((long)coefs[c] * x) +
+					((long)coefs[c + 1] * state[s]) +
+					((long)coefs[c + 2] * state[s + 1]) -
+					((long)coefs[c + 3] * state[s + 2]) -
+					((long)coefs[c + 4] * state[s + 3])) >> CoefShift);
+				state[s + 1] = state[s];
+				state[s] = x;
+				state[s + 3] = state[s + 2];
+				state[s + 2] = y;
+				x = y;
+			}
+			if (x > 32767) x = 32767;
+			else if (x < -32768) x = -32768;
+			buffer[i] = (byte)x;
+			buffer[i + 1] = (byte)(x >> 8);
+			if (++ch >= channels) ch = 0;
+		}
+	}
+	
+	public static int benchmark(int bandCount, int durationMS) {
+		//returns how many samples (per channel) can be processed per
+		//second, using a stereo 44100 Hz stream with bandCount bands
+		//boosted (44100 samples/s is the minimum for real-time playback)
+		if (bandCount < 1) bandCount = 1;
+		else if (bandCount > CenterFreqs.length) bandCount = CenterFreqs.length;
+		final int[] coefs = new int[CenterFreqs.length * 5];
+		final int[] active = new int[CenterFreqs.length];
+		final int[] state = new int[CenterFreqs.length * 2 * 4];
+		for (int i = 0; i < bandCount; i++) {
+			design(CenterFreqs[i], 600, 44100, coefs, i * 5);
+			active[i] = i;
+		}
+		final byte[] buffer = new byte[4096];
+		int seed = 0x1234567;
+		for (int i = 0; i < buffer.length; i++) {
+			seed = (seed * 1103515245) + 12345;
+			buffer[i] = (byte)(seed >> 16);
+		}
+		int samples = 0;
+		final long start = System.currentTimeMillis();
+		long elapsed;
+		do {
+			//keep the samples small, so the filters do not saturate
+			for (int i = 1; i < buffer.length; i += 2) {
+				buffer[i] >>= 2;
+			}
+			process(buffer, 0, buffer.length, 2, CenterFreqs.length, coefs, active, bandCount, state);
+			samples += (buffer.length >> 2);
+			elapsed = System.currentTimeMillis() - start;
+		} while (elapsed < durationMS);
+		return (int)(((long)samples * 1000) / elapsed);
+	}
+}
@@ -39,11 +39,6 @@ import baseIO.Serializable;
 import baseUtil.Sortable;
 import baseUtil.StringUtil;
 
-import javax.microedition.media.Control;
-import javax.microedition.media.Manager;
-import javax.microedition.media.Player;
-import javax.microedition.media.control.MetaDataControl;
-
 public final class Song implements Sortable, Serializable {
 	public static final int TITLE = 0x1;
 	public static final int ARTIST = 0x2;
@@ -54,15 +49,26 @@ public final class Song implements Sortable, Serializable {
 	public static final int FMT_TITLE_AUTHOR = 0x31;
 	public static final int FMT_ARTIST_TITLE = 0x12;
 	public static final int FMT_AUTHOR_TITLE = 0x13;
+	public static final int GAIN_UNKNOWN = Integer.MIN_VALUE;
 	public static int Format;
 	
 	private final String fileName;
 	private String title, author, name;
+	private String directURL, encodedURL; //built only once, on demand
 	private int order;
+	private int gain; //tenths of dB, set by LoudnessAnalyzer
+	private int durationMS;
+	private int shufflePosition; //position in the shuffled order, saved with the list
 	
 	public Song(String fileName) {
 		this.fileName = fileName;
-		refreshTitle(true);
+		this.gain = GAIN_UNKNOWN;
+		this.durationMS = -1;
+		this.shufflePosition = -1;
+		//the cache is trusted without checking the file here, so adding
+		//a whole folder only touches the files never seen before
+		refreshMetaData(false);
+		refreshTitle(false);
 	}
 	
 	public Song(String fileName, String songName) {
@@ -78,6 +84,9 @@ public final class Song implements Sortable, Serializable {
 		this.fileName = fileName;
 		this.name = songName;
 		this.author = songAuthor;
+		this.gain = GAIN_UNKNOWN;
+		this.durationMS = -1;
+		this.shufflePosition = -1;
 		refreshTitle(false);
 	}
 	
@@ -101,77 +110,105 @@ public final class Song implements Sortable, Serializable {
 		return fileName;
 	}
 	
-	private final void refreshMetaData() {
+	public final boolean hasGain() {
+		return (gain != GAIN_UNKNOWN);
+	}
+	
+	public final int getGain() {
+		return ((gain == GAIN_UNKNOWN) ? 0 : gain);
+	}
+	
+	final void setGain(int gain) {
+		this.gain = gain;
+		MetadataCache.putGain(this, gain);
+	}
+	
+	public final int getDurationMS() {
+		return durationMS;
+	}
+	
+	final void setDurationMS(int durationMS) {
+		if (this.durationMS == durationMS) return;
+		this.durationMS = durationMS;
+		MetadataCache.putDuration(this, durationMS);
+	}
+	
+	final int getShufflePosition() {
+		return shufflePosition;
+	}
+	
+	final void setShufflePosition(int shufflePosition) {
+		this.shufflePosition = shufflePosition;
+	}
+	
+	private static String cleanTag(String s) {
+		if (s == null) return null;
+		s = s.trim();
+		return ((s.length() == 0 || s.equals("unknown")) ? null : s);
+	}
+	
+	private final void refreshMetaData(boolean validate) {
 		if (Format == 0) {
 			name = null;
 			author = null;
 			return;
 		}
 		
-		Player p = null;
-		try {
-			//try to create the player using 2 types of URL!!!
-			p = Manager.createPlayer(getDirectURL());
-		} catch (Throwable ex) {
-		}
-		if (p == null) {
-			try {
-				p = Manager.createPlayer(getEncodedURL());
-			} catch (Throwable ex) {
-			}
-		}
-		if (p == null) return;
-		try {
-			p.prefetch();
-		} catch (Throwable ex) {
-			return;
+		TagReader tags = MetadataCache.lookup(this, validate);
+		if (tags != null) {
+			if (gain == GAIN_UNKNOWN) gain = tags.gain;
+			if (durationMS < 0) durationMS = tags.durationMS;
+		} else {
+			//reading the tags straight from the file is much faster than
+			//creating a player, which is left for unknown formats
+			tags = TagReader.read(this);
+			if (tags == null) tags = TagReader.readMMAPI(this);
+			MetadataCache.put(this, tags);
+			if (tags == null) return;
+			//an estimate from the headers, replaced by the actual
+			//duration once the song is played
+			if (tags.durationMS >= 0) durationMS = tags.durationMS;
 		}
 		
-		final Control c;
-		try {
-			c = p.getControl("MetaDataControl");
-		} catch (Throwable ex) {
-			p.close();
-			return;
-		}
-		if (c == null) {
-			p.close();
-			return;
-		}
-		
-		final MetaDataControl mc = (MetaDataControl)c;
-		//String[] ks = mc.getKeys();
-		//for (int i = 0; i < ks.length; i++) {
-		//	Main.alertShow(ks[i] + ":" + mc.getKeyValue(ks[i]), true);
-		//}
 		int fmt = Format;
 		while (fmt != 0) {
 			switch ((fmt & 0xF)) {
 				case 0x1:
-					name = mc.getKeyValue(MetaDataControl.TITLE_KEY).trim();
-					if (name != null && name.equals("unknown")) name = null;
+					name = cleanTag(tags.title);
 					break;
 				case 0x2:
-					try {
-						author = mc.getKeyValue("artist").trim();
-					} catch (Throwable ex) {
-						author = mc.getKeyValue(MetaDataControl.AUTHOR_KEY).trim();
-					}
-					if (author != null && author.equals("unknown")) author = null;
+					author = cleanTag((tags.artist != null) ? tags.artist : tags.author);
 					break;
 				case 0x3:
-					author = mc.getKeyValue(MetaDataControl.AUTHOR_KEY).trim();
-					if (author != null && author.equals("unknown")) author = null;
+					author = cleanTag((tags.author != null) ? tags.author : tags.artist);
 					break;
 			}
 			fmt >>= 4;
 		}
-		
-		p.close();
+	}
+	
+	public static void appendDuration(StringBuffer sb, int durationMS) {
+		int t = durationMS / 1000;
+		if (t >= 3600) {
+			sb.append(t / 3600);
+			sb.append('h');
+			t %= 3600;
+			if (t < 600) sb.append('0');
+		}
+		sb.append(t / 60);
+		sb.append('\'');
+		t %= 60;
+		if (t < 10) sb.append('0');
+		sb.append(t);
+		sb.append('\"');
+	}
+	
+	public static String benchmarkMetaData(Song[] songs) {
+		return TagReader.benchmark(songs);
 	}
 	
 	public final void refreshTitle(boolean readMetaData) {
-		if (readMetaData) refreshMetaData();
+		if (readMetaData) refreshMetaData(true);
 		
 		if (name == null || name.length() == 0) {
 			author = null;
@@ -211,7 +248,13 @@ public final class Song implements Sortable, Serializable {
 		final String f = stream.readString();
 		final String n = stream.readString();
 		final String a = stream.readString();
-		return new Song(o, f, n, a);
+		final Song s = new Song(o, f, n, a);
+		//lists saved by older versions do not have the gain, the duration
+		//or the shuffle position
+		if (!stream.eos()) s.gain = stream.readInt();
+		if (!stream.eos()) s.durationMS = stream.readInt();
+		if (!stream.eos()) s.shufflePosition = stream.readInt();
+		return s;
 	}
 	
 	public final void serialize(ByteOutStream stream) {
@@ -219,6 +262,9 @@ public final class Song implements Sortable, Serializable {
 		stream.writeString(fileName);
 		stream.writeString(name);
 		stream.writeString(author);
+		stream.writeInt(gain);
+		stream.writeInt(durationMS);
+		stream.writeInt(shufflePosition);
 	}
 	
 	public final int compare(Sortable item) {
@@ -230,10 +276,17 @@ public final class Song implements Sortable, Serializable {
 	}
 	
 	public final String getDirectURL() {
-		return "file:///" + fileName;
+		if (directURL == null) directURL = "file:///" + fileName;
+		return directURL;
 	}
 	
 	public final String getEncodedURL() {
-		return StringUtil.encodeURI("file:///", fileName);
+		if (encodedURL == null) {
+			final String url = StringUtil.encodeURI("file:///", fileName);
+			//when there is nothing to encode, both are the same object,
+			//which tells URLResolver not to try it twice
+			encodedURL = (url.equals(getDirectURL()) ? directURL : url);
+		}
+		return encodedURL;
 	}
 }
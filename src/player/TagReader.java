@@ -0,0 +1,522 @@
+//
+// TagReader.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/TagReader.java
+//
+
+package player;
+
+import java.io.InputStream;
+
+import javax.microedition.media.Control;
+import javax.microedition.media.Player;
+import javax.microedition.media.control.MetaDataControl;
+
+final class TagReader {
+	private static final int HeadLength = 16384;
+	private static final int MaximumBoxLength = 65536;
+	
+	String title, artist, author;
+	long size = -1, lastModified = -1;
+	int durationMS = -1, gain = Song.GAIN_UNKNOWN;
+	
+	static boolean readFully(InputStream in, byte[] b, int offset, int length) throws Exception {
+		while (length > 0) {
+			final int n = in.read(b, offset, length);
+			if (n < 0) return false;
+			offset += n;
+			length -= n;
+		}
+		return true;
+	}
+	
+	private static int readAtMost(InputStream in, byte[] b, int length) throws Exception {
+		int offset = 0;
+		while (offset < length) {
+			final int n = in.read(b, offset, length - offset);
+			if (n < 0) break;
+			offset += n;
+		}
+		return offset;
+	}
+	
+	static boolean skipFully(InputStream in, long count) throws Exception {
+		while (count > 0) {
+			final long n = in.skip(count);
+			if (n <= 0) {
+				if (in.read() < 0) return false;
+				count--;
+			} else {
+				count -= n;
+			}
+		}
+		return true;
+	}
+	
+	private static int readBE(byte[] b, int offset, int length) {
+		int x = 0;
+		for (int i = 0; i < length; i++) {
+			x = (x << 8) | (b[offset + i] & 0xFF);
+		}
+		return x;
+	}
+	
+	private static int readLE(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8) | ((b[offset + 2] & 0xFF) << 16) | ((b[offset + 3] & 0xFF) << 24);
+	}
+	
+	private static int readSyncSafe(byte[] b, int offset) {
+		return ((b[offset] & 0x7F) << 21) | ((b[offset + 1] & 0x7F) << 14) | ((b[offset + 2] & 0x7F) << 7) | (b[offset + 3] & 0x7F);
+	}
+	
+	private static boolean matches(byte[] b, int offset, String id) {
+		if (offset + id.length() > b.length) return false;
+		for (int i = id.length() - 1; i >= 0; i--) {
+			if ((b[offset + i] & 0xFF) != id.charAt(i)) return false;
+		}
+		return true;
+	}
+	
+	private static String decodeUTF8(byte[] b, int offset, int length) {
+		final StringBuffer sb = new StringBuffer(length);
+		final int end = offset + length;
+		while (offset < end) {
+			int c = b[offset++] & 0xFF;
+			if (c == 0) break;
+			if (c >= 0xE0 && offset + 1 < end) {
+				c = ((c & 0x0F) << 12) | ((b[offset] & 0x3F) << 6) | (b[offset + 1] & 0x3F);
+				offset += 2;
+			} else if (c >= 0xC0 && offset < end) {
+				c = ((c & 0x1F) << 6) | (b[offset] & 0x3F);
+				offset++;
+			}
+			sb.append((char)c);
+		}
+		return sb.toString();
+	}
+	
+	private static String decodeText(byte[] b, int offset, int length, int encoding) {
+		//ID3v2 text encodings: 0 = ISO-8859-1, 1 = UTF-16 with BOM,
+		//2 = UTF-16BE, 3 = UTF-8
+		if (length <= 0) return null;
+		if (encoding == 3) return decodeUTF8(b, offset, length);
+		final StringBuffer sb = new StringBuffer(length);
+		final int end = offset + length;
+		if (encoding == 1 || encoding == 2) {
+			boolean le = false;
+			if (encoding == 1 && length >= 2) {
+				if ((b[offset] & 0xFF) == 0xFF && (b[offset + 1] & 0xFF) == 0xFE) {
+					le = true;
+					offset += 2;
+				} else if ((b[offset] & 0xFF) == 0xFE && (b[offset + 1] & 0xFF) == 0xFF) {
+					offset += 2;
+				}
+			}
+			for (; offset + 1 < end; offset += 2) {
+				final int c = (le ? ((b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8)) : (((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF)));
+				if (c == 0) break;
+				sb.append((char)c);
+			}
+		} else {
+			for (; offset < end; offset++) {
+				final int c = b[offset] & 0xFF;
+				if (c == 0) break;
+				sb.append((char)c);
+			}
+		}
+		return sb.toString();
+	}
+	
+	private final boolean isComplete() {
+		return (title != null && artist != null);
+	}
+	
+	private final void parseID3v2(byte[] b, int length) {
+		final int version = b[3];
+		final int flags = b[5];
+		int end = 10 + readSyncSafe(b, 6);
+		if (end > length) end = length;
+		if (version == 3 && (flags & 0x80) != 0) {
+			//remove the unsynchronisation (every 0xFF 0x00 becomes 0xFF)
+			int w = 10;
+			for (int r = 10; r < end; r++) {
+				b[w++] = b[r];
+				if ((b[r] & 0xFF) == 0xFF && r + 1 < end && b[r + 1] == 0) r++;
+			}
+			end = w;
+		}
+		int p = 10;
+		if ((flags & 0x40) != 0) {
+			//skip the extended header
+			if (version == 3) p += 4 + readBE(b, 10, 4);
+			else if (version == 4) p += readSyncSafe(b, 10);
+		}
+		final int headerLength = ((version == 2) ? 6 : 10);
+		while (p + headerLength <= end && b[p] != 0) {
+			final int size = ((version == 2) ? readBE(b, p + 3, 3) : ((version == 4) ? readSyncSafe(b, p + 4) : readBE(b, p + 4, 4)));
+			final int frame = p;
+			int data = p + headerLength;
+			int dataLength = size;
+			p = data + size;
+			if (size <= 0 || p > end) break;
+			if (version >= 3) {
+				final int f = b[data - 1];
+				//compressed or encrypted frames are skipped
+				if ((version == 3 && (f & 0xC0) != 0) || (version == 4 && (f & 0x0C) != 0)) continue;
+				if (version == 4 && (f & 0x01) != 0) {
+					//data length indicator
+					data += 4;
+					dataLength -= 4;
+				}
+			}
+			if (dataLength < 2) continue;
+			if (matches(b, frame, (version == 2) ? "TT2" : "TIT2")) {
+				if (title == null) title = decodeText(b, data + 1, dataLength - 1, b[data]);
+			} else if (matches(b, frame, (version == 2) ? "TP1" : "TPE1")) {
+				if (artist == null) artist = decodeText(b, data + 1, dataLength - 1, b[data]);
+			} else if (matches(b, frame, (version == 2) ? "TCM" : "TCOM")) {
+				if (author == null) author = decodeText(b, data + 1, dataLength - 1, b[data]);
+			}
+		}
+	}
+	
+	private final void parseID3v1(byte[] b) {
+		//the last 128 bytes of the file: "TAG", title[30], artist[30], ...
+		if (!matches(b, 0, "TAG")) return;
+		if (title == null) title = trimLatin1(b, 3, 30);
+		if (artist == null) artist = trimLatin1(b, 33, 30);
+	}
+	
+	private static String trimLatin1(byte[] b, int offset, int length) {
+		final String s = decodeText(b, offset, length, 0).trim();
+		return ((s.length() == 0) ? null : s);
+	}
+	
+	private final void parseVorbisComment(byte[] b, int p, int end) {
+		//vendor string, then count x (length + "KEY=value"), little endian
+		if (p + 4 > end) return;
+		p += 4 + readLE(b, p);
+		if (p + 4 > end || p < 0) return;
+		int count = readLE(b, p);
+		p += 4;
+		while (count-- > 0 && p + 4 <= end) {
+			final int len = readLE(b, p);
+			p += 4;
+			if (len < 0 || p + len > end) break;
+			final int eq = indexOf(b, p, p + len, '=');
+			if (eq > p) {
+				final String key = decodeText(b, p, eq - p, 0).toUpperCase();
+				if (title == null && key.equals("TITLE")) title = decodeUTF8(b, eq + 1, p + len - eq - 1);
+				else if (artist == null && key.equals("ARTIST")) artist = decodeUTF8(b, eq + 1, p + len - eq - 1);
+				else if (author == null && key.equals("COMPOSER")) author = decodeUTF8(b, eq + 1, p + len - eq - 1);
+			}
+			p += len;
+		}
+	}
+	
+	private static int indexOf(byte[] b, int start, int end, int c) {
+		for (int i = start; i < end; i++) {
+			if (b[i] == c) return i;
+		}
+		return -1;
+	}
+	
+	private final boolean parseOgg(byte[] b, int length) {
+		//the comment header is the second packet, usually right at the
+		//beginning of the second page
+		for (int i = 0; i + 7 <= length; i++) {
+			if (b[i] == 3 && matches(b, i + 1, "vorbis")) {
+				parseVorbisComment(b, i + 7, length);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private final boolean parseFLAC(InputStream in, byte[] b) throws Exception {
+		//"fLaC" has already been read, now come the metadata blocks
+		for (; ; ) {
+			if (!readFully(in, b, 0, 4)) return false;
+			final boolean last = ((b[0] & 0x80) != 0);
+			final int len = readBE(b, 1, 3);
+			if ((b[0] & 0x7F) == 0 && len >= 18 && len <= b.length) {
+				//STREAMINFO is always the first block
+				if (!readFully(in, b, 0, len)) return false;
+				durationMS = DurationEstimator.flac(b);
+				if (last) return true;
+				continue;
+			}
+			if ((b[0] & 0x7F) == 4) {
+				if (len > MaximumBoxLength) return false;
+				final byte[] c = ((len <= b.length) ? b : new byte[len]);
+				if (!readFully(in, c, 0, len)) return false;
+				parseVorbisComment(c, 0, len);
+				return true;
+			}
+			if (last || !skipFully(in, len)) return false;
+		}
+	}
+	
+	private static long findBox(InputStream in, byte[] b, long remaining, String type) throws Exception {
+		//returns the length of the payload of the box (its header has
+		//been consumed), or -1, skipping any other boxes along the way
+		while (remaining >= 8) {
+			if (!readFully(in, b, 0, 8)) return -1;
+			long len = readBE(b, 0, 4) & 0xFFFFFFFFL;
+			int header = 8;
+			if (len == 1) {
+				if (!readFully(in, b, 8, 8)) return -1;
+				len = ((long)readBE(b, 8, 4) << 32) | (readBE(b, 12, 4) & 0xFFFFFFFFL);
+				header = 16;
+			} else if (len == 0) {
+				len = remaining;
+			}
+			if (len < header || len > remaining) return -1;
+			if (matches(b, 4, type)) return len - header;
+			if (!skipFully(in, len - header)) return -1;
+			remaining -= len;
+		}
+		return -1;
+	}
+	
+	private final boolean parseMP4(InputStream in, byte[] b, long size) throws Exception {
+		//moov > udta > meta (full box) > ilst > items > data
+		long len = findBox(in, b, size, "moov");
+		if (len < 0) return false;
+		//mvhd (nearly always the very first box) comes before udta
+		for (; ; ) {
+			if (len < 8 || !readFully(in, b, 0, 8)) return true;
+			final int boxLength = readBE(b, 0, 4);
+			if (boxLength < 8 || boxLength > len) return true;
+			len -= boxLength;
+			if (matches(b, 4, "udta")) {
+				len = boxLength - 8;
+				break;
+			}
+			if (matches(b, 4, "mvhd") && boxLength - 8 <= b.length) {
+				if (!readFully(in, b, 0, boxLength - 8)) return true;
+				durationMS = DurationEstimator.mvhd(b, boxLength - 8);
+			} else if (!skipFully(in, boxLength - 8)) {
+				return true;
+			}
+		}
+		len = findBox(in, b, len, "meta");
+		if (len < 4 || !skipFully(in, 4)) return true;
+		len = findBox(in, b, len - 4, "ilst");
+		if (len < 0) return true;
+		while (len >= 8 && !isComplete()) {
+			if (!readFully(in, b, 0, 8)) break;
+			final int itemLength = readBE(b, 0, 4);
+			if (itemLength < 8 || itemLength > len) break;
+			len -= itemLength;
+			final int which = (((b[4] & 0xFF) == 0xA9) ? (matches(b, 5, "nam") ? 1 : (matches(b, 5, "ART") ? 2 : (matches(b, 5, "wrt") ? 3 : 0))) : 0);
+			if (which == 0 || itemLength - 8 > b.length) {
+				if (!skipFully(in, itemLength - 8)) break;
+				continue;
+			}
+			if (!readFully(in, b, 0, itemLength - 8)) break;
+			//data box: length, "data", type, locale, value
+			if (itemLength - 8 < 16 || !matches(b, 4, "data")) continue;
+			final int dataLength = Math.min(readBE(b, 0, 4), itemLength - 8) - 16;
+			final String s = decodeUTF8(b, 16, dataLength);
+			switch (which) {
+			case 1: title = s; break;
+			case 2: artist = s; break;
+			case 3: author = s; break;
+			}
+		}
+		return true;
+	}
+	
+	static long[] stat(Song song) {
+		//{ size, lastModified }, or null if the file could not be opened
+		javax.microedition.io.file.FileConnection fc = null;
+		try {
+			fc = URLResolver.openFile(song);
+			return new long[] { fc.fileSize(), fc.lastModified() };
+		} catch (Throwable ex) {
+			return null;
+		} finally {
+			try {
+				if (fc != null) fc.close();
+			} catch (Throwable ex) {
+			}
+		}
+	}
+	
+	static TagReader read(Song song) {
+		//returns null when the format is not known (or the file could not
+		//be opened), and then the caller should try MMAPI
+		final String fileName = song.getFileName().toLowerCase();
+		final int kind;
+		if (fileName.endsWith(".mp3") || fileName.endsWith(".mp2")) kind = 1;
+		else if (fileName.endsWith(".m4a") || fileName.endsWith(".mp4") || fileName.endsWith(".m4b") || fileName.endsWith(".3gp")) kind = 2;
+		else if (fileName.endsWith(".ogg") || fileName.endsWith(".oga")) kind = 3;
+		else if (fileName.endsWith(".flac")) kind = 4;
+		else if (fileName.endsWith(".wav")) kind = 5;
+		else return null;
+		
+		javax.microedition.io.file.FileConnection fc = null;
+		InputStream in = null;
+		try {
+			fc = URLResolver.openFile(song);
+			final long size = fc.fileSize();
+			in = fc.openInputStream();
+			final TagReader tags = new TagReader();
+			tags.size = size;
+			tags.lastModified = fc.lastModified();
+			final byte[] b;
+			switch (kind) {
+			case 1:
+				b = new byte[HeadLength];
+				int length = readAtMost(in, b, (int)Math.min(HeadLength, size));
+				long position = length;
+				int audio = 0;
+				if (length >= 10 && matches(b, 0, "ID3") && b[3] >= 2 && b[3] <= 4) {
+					//the tag, plus its footer (if present)
+					audio = 10 + readSyncSafe(b, 6) + (((b[5] & 0x10) != 0) ? 10 : 0);
+					tags.parseID3v2(b, length);
+				}
+				if (audio + DurationEstimator.FrameProbeLength <= length || position == size) {
+					tags.durationMS = DurationEstimator.mp3(b, audio, length, size - audio);
+				} else if (audio < size) {
+					//the tag does not fit in the head (it probably has a
+					//picture), so just the first frames are read
+					int kept = 0;
+					if (audio < length) {
+						kept = length - audio;
+						System.arraycopy(b, audio, b, 0, kept);
+					} else if (!skipFully(in, audio - position)) {
+						kept = -1;
+					}
+					if (kept >= 0) {
+						final int probe = (int)Math.min(DurationEstimator.FrameProbeLength, size - audio);
+						while (kept < probe) {
+							final int n = in.read(b, kept, probe - kept);
+							if (n < 0) break;
+							kept += n;
+						}
+						position = audio + kept;
+						tags.durationMS = DurationEstimator.mp3(b, 0, kept, size - audio);
+					}
+				}
+				if (!tags.isComplete() && size >= 128 + position) {
+					//only the last 128 bytes are read
+					if (skipFully(in, size - 128 - position) && readFully(in, b, 0, 128))
+						tags.parseID3v1(b);
+				}
+				break;
+			case 2:
+				b = new byte[1024];
+				if (!tags.parseMP4(in, b, size)) return null;
+				break;
+			case 3:
+				b = new byte[HeadLength];
+				if (!tags.parseOgg(b, readAtMost(in, b, (int)Math.min(HeadLength, size)))) return null;
+				break;
+			case 4:
+				b = new byte[1024];
+				if (!readFully(in, b, 0, 4) || !matches(b, 0, "fLaC") || !tags.parseFLAC(in, b)) return null;
+				break;
+			default:
+				//there are no tags to be read, but MMAPI would not tell
+				//their titles anyway
+				tags.durationMS = DurationEstimator.wav(in, new byte[16], size);
+				break;
+			}
+			return tags;
+		} catch (Throwable ex) {
+			return null;
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (Throwable ex) {
+			}
+			try {
+				if (fc != null) fc.close();
+			} catch (Throwable ex) {
+			}
+		}
+	}
+	
+	static TagReader readMMAPI(Song song) {
+		//the slow path: a whole player must be created and prefetched
+		//just to get its MetaDataControl
+		Player p = null;
+		try {
+			p = URLResolver.createPlayer(song);
+		} catch (Throwable ex) {
+			return null;
+		}
+		try {
+			p.prefetch();
+			final Control c = p.getControl("MetaDataControl");
+			if (c == null) return null;
+			final MetaDataControl mc = (MetaDataControl)c;
+			final TagReader tags = new TagReader();
+			tags.title = mc.getKeyValue(MetaDataControl.TITLE_KEY);
+			tags.author = mc.getKeyValue(MetaDataControl.AUTHOR_KEY);
+			try {
+				tags.artist = mc.getKeyValue("artist");
+			} catch (Throwable ex) {
+				tags.artist = tags.author;
+			}
+			return tags;
+		} catch (Throwable ex) {
+			return null;
+		} finally {
+			p.close();
+		}
+	}
+	
+	static String benchmark(Song[] songs) {
+		//files per second, reading only the tags versus creating players
+		final StringBuffer sb = new StringBuffer(64);
+		for (int pass = 0; pass < 2; pass++) {
+			int parsed = 0;
+			final long start = System.currentTimeMillis();
+			for (int i = 0; i < songs.length; i++) {
+				if (((pass == 0) ? read(songs[i]) : readMMAPI(songs[i])) != null) parsed++;
+			}
+			final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+			final int rate = (int)((songs.length * 10000L) / elapsed);
+			sb.append((pass == 0) ? "Tags: " : "MMAPI: ");
+			sb.append(rate / 10);
+			sb.append('.');
+			sb.append(rate % 10);
+			sb.append(" arquivos/s (");
+			sb.append(parsed);
+			sb.append('/');
+			sb.append(songs.length);
+			sb.append(")\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,147 @@
+//
+// URLResolver.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/URLResolver.java
+//
+
+package player;
+
+import baseIO.ByteInStream;
+import baseIO.ByteOutStream;
+import baseUtil.Map;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import javax.microedition.media.Manager;
+
+public final class URLResolver {
+	private static final int CFG_FORMS = 0x0301;
+	
+	private static final int FormDirect = 1;
+	private static final int FormEncoded = 2;
+	
+	//"f" (FileConnection) or "p" (MMAPI) + storage root -> form that works
+	private static final Hashtable forms = new Hashtable(8);
+	private static boolean dirty;
+	
+	private URLResolver() {
+	}
+	
+	private static String key(char kind, String fileName) {
+		//the storage root is everything up to the first /, such as "E:/"
+		//or "memorycard/", and each one may be mounted differently
+		final int i = fileName.indexOf('/');
+		return kind + ((i < 0) ? "" : fileName.substring(0, i + 1));
+	}
+	
+	private static synchronized int getForm(String key) {
+		final Integer f = (Integer)forms.get(key);
+		return ((f == null) ? FormDirect : f.intValue());
+	}
+	
+	private static synchronized void setForm(String key, int form) {
+		final Integer f = (Integer)forms.get(key);
+		if (f == null || f.intValue() != form) {
+			forms.put(key, new Integer(form));
+			dirty = true;
+		}
+	}
+	
+	static javax.microedition.io.file.FileConnection openFile(Song song) throws Exception {
+		final String key = key('f', song.getFileName());
+		final boolean encodedFirst = (getForm(key) == FormEncoded);
+		final String first = (encodedFirst ? song.getEncodedURL() : song.getDirectURL());
+		final String second = (encodedFirst ? song.getDirectURL() : song.getEncodedURL());
+		//both forms are the same string when there is nothing to encode
+		if (first != second) {
+			javax.microedition.io.file.FileConnection fc = null;
+			try {
+				//opening a file URL usually succeeds even when the path
+				//does not exist, so the form only counts if the file is there
+				fc = (javax.microedition.io.file.FileConnection)javax.microedition.io.Connector.open(first, javax.microedition.io.Connector.READ);
+				if (fc.exists()) {
+					setForm(key, encodedFirst ? FormEncoded : FormDirect);
+					return fc;
+				}
+			} catch (Throwable ex) {
+			}
+			if (fc != null) {
+				try {
+					fc.close();
+				} catch (Throwable ex) {
+				}
+			}
+		}
+		final javax.microedition.io.file.FileConnection fc = (javax.microedition.io.file.FileConnection)javax.microedition.io.Connector.open(second, javax.microedition.io.Connector.READ);
+		if (first != second && fc.exists()) setForm(key, encodedFirst ? FormDirect : FormEncoded);
+		return fc;
+	}
+	
+	static javax.microedition.media.Player createPlayer(Song song) throws Exception {
+		final String key = key('p', song.getFileName());
+		final boolean encodedFirst = (getForm(key) == FormEncoded);
+		final String first = (encodedFirst ? song.getEncodedURL() : song.getDirectURL());
+		final String second = (encodedFirst ? song.getDirectURL() : song.getEncodedURL());
+		if (first != second) {
+			try {
+				final javax.microedition.media.Player p = Manager.createPlayer(first);
+				setForm(key, encodedFirst ? FormEncoded : FormDirect);
+				return p;
+			} catch (Throwable ex) {
+			}
+		}
+		final javax.microedition.media.Player p = Manager.createPlayer(second);
+		if (first != second) setForm(key, encodedFirst ? FormDirect : FormEncoded);
+		return p;
+	}
+	
+	public static synchronized void loadConfig(Map map) {
+		final byte[] b = map.getBytes(CFG_FORMS, null);
+		if (b == null) return;
+		final ByteInStream stream = new ByteInStream(b);
+		forms.clear();
+		while (!stream.eos()) {
+			final String key = stream.readString();
+			forms.put(key, new Integer(stream.readByte()));
+		}
+		dirty = false;
+	}
+	
+	public static synchronized void saveConfig(Map map) {
+		if (!dirty && map.contains(CFG_FORMS)) return;
+		final ByteOutStream stream = new ByteOutStream(64);
+		for (Enumeration e = forms.keys(); e.hasMoreElements(); ) {
+			final String key = (String)e.nextElement();
+			stream.writeString(key);
+			stream.writeByte(((Integer)forms.get(key)).intValue());
+		}
+		map.putBytes(CFG_FORMS, stream.toByteArray());
+		dirty = false;
+	}
+}
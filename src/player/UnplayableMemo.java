@@ -0,0 +1,139 @@
+//
+// UnplayableMemo.java is distributed under the FreeBSD License
+//
+// Copyright (c) 2012, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://raw.github.com/carlosrafaelgn/FPlay/src/player/UnplayableMemo.java
+//
+
+package player;
+
+import baseIO.ByteInStream;
+import baseIO.ByteOutStream;
+import baseIO.File;
+import baseIO.FileEnumerationListener;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+public final class UnplayableMemo {
+	private static final String FileName = "unplayable";
+	private static final int MaximumEntries = 256;
+	
+	//path -> { size, lastModified }
+	private static Hashtable entries;
+	private static boolean dirty;
+	private static int skipped;
+	
+	private UnplayableMemo() {
+	}
+	
+	private static void ensureLoaded() {
+		if (entries != null) return;
+		entries = new Hashtable(16);
+		final File file = new File(FileName, false);
+		if (file.openExisting()) {
+			file.enumerateRecords(new FileEnumerationListener() {
+				public boolean recordEnumerated(ByteInStream stream) {
+					final String path = stream.readString();
+					entries.put(path, new long[] { stream.readLong(), stream.readLong() });
+					return true;
+				}
+			});
+		}
+		file.close();
+	}
+	
+	static synchronized boolean isUnplayable(Song song) {
+		ensureLoaded();
+		final long[] e = (long[])entries.get(song.getFileName());
+		if (e == null) return false;
+		//opening the file just to check its size is still much cheaper
+		//than having MMAPI fail on it once again
+		final long[] stat = TagReader.stat(song);
+		if (stat != null && (stat[0] != e[0] || stat[1] != e[1])) {
+			//the file has changed since it failed, so give it another try
+			entries.remove(song.getFileName());
+			dirty = true;
+			return false;
+		}
+		skipped++;
+		return true;
+	}
+	
+	static synchronized void add(Song song) {
+		ensureLoaded();
+		if (entries.size() >= MaximumEntries) return;
+		final long[] stat = TagReader.stat(song);
+		//files that cannot even be opened are not remembered, as they
+		//may just be on a card that has been removed
+		if (stat == null) return;
+		entries.put(song.getFileName(), stat);
+		dirty = true;
+	}
+	
+	static synchronized void remove(Song song) {
+		if (entries != null && entries.remove(song.getFileName()) != null) dirty = true;
+	}
+	
+	public static synchronized boolean save() {
+		if (entries == null || !dirty) return true;
+		final File file = new File(FileName, false);
+		if (!file.openTruncate()) {
+			file.close();
+			return false;
+		}
+		final ByteOutStream outp = new ByteOutStream(64);
+		for (Enumeration en = entries.keys(); en.hasMoreElements(); ) {
+			final String path = (String)en.nextElement();
+			final long[] e = (long[])entries.get(path);
+			outp.reset();
+			outp.writeString(path);
+			outp.writeLong(e[0]);
+			outp.writeLong(e[1]);
+			file.addRecord(outp);
+		}
+		file.close();
+		dirty = false;
+		return true;
+	}
+	
+	public static synchronized void clear() {
+		entries = new Hashtable(16);
+		dirty = true;
+		skipped = 0;
+	}
+	
+	public static synchronized int getCount() {
+		ensureLoaded();
+		return entries.size();
+	}
+	
+	public static int getSkippedCount() {
+		return skipped;
+	}
+}
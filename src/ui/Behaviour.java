@@ -39,11 +39,12 @@ import baseUI.Window;
 import baseUtil.Map;
 
 public final class Behaviour extends baseUI.Behaviour {
-	private static boolean EnvVolumeControl, EnvLoadNextSong;
-	private static int EnvControlButtons;
+	private static boolean EnvVolumeControl, EnvNormalizeVolume, EnvPrefetchAuto, EnvByteSeek;
+	private static int EnvControlButtons, EnvPrefetchSlots, EnvCrossfadeSec, EnvPrefetchDelaySec, EnvReadAhead;
 	public static int KeyDel, KeyVolDn, KeyVolUp, KeyPause, KeyNext, KeyPrev, KeySel;
 	
 	public static final int ENV_VOLUMECONTROL = 0x00010000;
+	public static final int ENV_NORMALIZEVOLUME = 0x00020000;
 	
 	private static WindowPlayer mainWindow;
 	
@@ -59,13 +60,99 @@ public final class Behaviour extends baseUI.Behaviour {
 	private static final int CFG_SONGFORMAT = 0x000A;
 	private static final int CFG_BROWSERFOLDER = 0x000B;
 	private static final int CFG_KEYSEL = 0x000C;
+	private static final int CFG_ENVPREFETCHSLOTS = 0x000D;
+	private static final int CFG_ENVCROSSFADE = 0x000E;
+	private static final int CFG_ENVNORMALIZEVOLUME = 0x000F;
+	private static final int CFG_ENVPREFETCHDELAY = 0x0010;
+	private static final int CFG_ENVPREFETCHAUTO = 0x0011;
+	private static final int CFG_ENVBYTESEEK = 0x0012;
+	private static final int CFG_ENVREADAHEAD = 0x0013;
+	
+	public static final int MAX_PREFETCHSLOTS = 4;
+	public static final int MAX_CROSSFADESEC = 10;
+	public static final int MAX_READAHEAD = 3;
+	public static final int MAX_PREFETCHDELAYSEC = 60;
+	
+	public static int environmentGetPrefetchDelaySec() {
+		return EnvPrefetchDelaySec;
+	}
+	
+	public static int environmentGetPrefetchDelayMS() {
+		return EnvPrefetchDelaySec * 1000;
+	}
+	
+	public static void environmentSetPrefetchDelaySec(int prefetchDelaySec) {
+		if (prefetchDelaySec < 0) prefetchDelaySec = 0;
+		else if (prefetchDelaySec > MAX_PREFETCHDELAYSEC) prefetchDelaySec = MAX_PREFETCHDELAYSEC;
+		EnvPrefetchDelaySec = prefetchDelaySec;
+	}
+	
+	public static int environmentGetCrossfadeSec() {
+		return EnvCrossfadeSec;
+	}
+	
+	public static int environmentGetCrossfadeMS() {
+		//crossfading depends on the next song being prepared in advance
+		return (environmentGetLoadNextSong() ? (EnvCrossfadeSec * 1000) : 0);
+	}
+	
+	public static void environmentSetCrossfadeSec(int crossfadeSec) {
+		if (crossfadeSec < 0) crossfadeSec = 0;
+		else if (crossfadeSec > MAX_CROSSFADESEC) crossfadeSec = MAX_CROSSFADESEC;
+		EnvCrossfadeSec = crossfadeSec;
+	}
 	
 	public static boolean environmentGetLoadNextSong() {
-		return EnvLoadNextSong;
+		return (EnvPrefetchAuto || EnvPrefetchSlots > 0);
+	}
+	
+	public static boolean environmentIsPrefetchAuto() {
+		return EnvPrefetchAuto;
+	}
+	
+	public static void environmentSetPrefetchAuto(boolean prefetchAuto) {
+		EnvPrefetchAuto = prefetchAuto;
+	}
+	
+	public static boolean environmentGetByteSeek() {
+		//MP3 seeks done by opening the file right at the frame wanted,
+		//for handsets where setMediaTime is slow or inaccurate
+		return EnvByteSeek;
+	}
+	
+	public static void environmentSetByteSeek(boolean byteSeek) {
+		EnvByteSeek = byteSeek;
+	}
+	
+	public static int environmentGetReadAhead() {
+		return EnvReadAhead;
+	}
+	
+	public static int environmentGetReadAheadBytes() {
+		//0 = off, then 64, 128 and 256 KB (both halves of the window)
+		return ((EnvReadAhead == 0) ? 0 : (0x8000 << EnvReadAhead));
+	}
+	
+	public static void environmentSetReadAhead(int readAhead) {
+		if (readAhead < 0) readAhead = 0;
+		else if (readAhead > MAX_READAHEAD) readAhead = MAX_READAHEAD;
+		EnvReadAhead = readAhead;
 	}
 	
-	public static void environmentSetLoadNextSong(boolean loadNextSong) {
-		EnvLoadNextSong = loadNextSong;
+	public static int environmentGetPrefetchSlots() {
+		return EnvPrefetchSlots;
+	}
+	
+	public static int environmentGetPrefetchCapacity() {
+		//in automatic mode the player's governor decides, per song, how
+		//many of the slots are actually used
+		return (EnvPrefetchAuto ? MAX_PREFETCHSLOTS : EnvPrefetchSlots);
+	}
+	
+	public static void environmentSetPrefetchSlots(int prefetchSlots) {
+		if (prefetchSlots < 0) prefetchSlots = 0;
+		else if (prefetchSlots > MAX_PREFETCHSLOTS) prefetchSlots = MAX_PREFETCHSLOTS;
+		EnvPrefetchSlots = prefetchSlots;
 	}
 	
 	public static int environmentGetControlButtons() {
@@ -112,6 +199,18 @@ public final class Behaviour extends baseUI.Behaviour {
 		mainWindow.eventEnvironment(ENV_VOLUMECONTROL);
 	}
 	
+	public static boolean environmentGetNormalizeVolume() {
+		//the gain of the songs can only be applied through VolumeControl
+		return (EnvVolumeControl && EnvNormalizeVolume);
+	}
+	
+	public static void environmentSetNormalizeVolume(boolean normalizeVolume) {
+		if (EnvNormalizeVolume != normalizeVolume) {
+			EnvNormalizeVolume = normalizeVolume;
+			mainWindow.eventEnvironment(ENV_NORMALIZEVOLUME);
+		}
+	}
+	
 	public final void loadConfig(Map map) {
 		super.loadConfig(map);
 		
@@ -124,11 +223,22 @@ public final class Behaviour extends baseUI.Behaviour {
 		KeySel = map.getShort(CFG_KEYSEL, '5');
 		EnvControlButtons = map.getUByte(CFG_ENVCONTROLBUTTONS, 2);
 		EnvVolumeControl = map.getBoolean(CFG_ENVVOLUMECONTROL, false);
-		EnvLoadNextSong = map.getBoolean(CFG_ENVLOADNEXTSONG, false);
+		EnvNormalizeVolume = map.getBoolean(CFG_ENVNORMALIZEVOLUME, false);
+		EnvPrefetchSlots = map.getUByte(CFG_ENVPREFETCHSLOTS, map.getBoolean(CFG_ENVLOADNEXTSONG, false) ? 1 : 0);
+		EnvCrossfadeSec = map.getUByte(CFG_ENVCROSSFADE, 0);
+		EnvPrefetchDelaySec = map.getUByte(CFG_ENVPREFETCHDELAY, 0);
+		//automatic unless the user has already chosen something
+		EnvPrefetchAuto = map.getBoolean(CFG_ENVPREFETCHAUTO, !map.contains(CFG_ENVPREFETCHSLOTS) && !map.contains(CFG_ENVLOADNEXTSONG));
+		EnvByteSeek = map.getBoolean(CFG_ENVBYTESEEK, false);
+		EnvReadAhead = map.getUByte(CFG_ENVREADAHEAD, 0);
 		Song.Format = map.getUByte(CFG_SONGFORMAT, Song.FMT_NONE);
 		WindowBrowser.setCurrentFolder(map.getString(CFG_BROWSERFOLDER, ""));
 		
 		if (EnvControlButtons > 2) EnvControlButtons = 2;
+		if (EnvPrefetchSlots > MAX_PREFETCHSLOTS) EnvPrefetchSlots = MAX_PREFETCHSLOTS;
+		if (EnvCrossfadeSec > MAX_CROSSFADESEC) EnvCrossfadeSec = MAX_CROSSFADESEC;
+		if (EnvPrefetchDelaySec > MAX_PREFETCHDELAYSEC) EnvPrefetchDelaySec = MAX_PREFETCHDELAYSEC;
+		if (EnvReadAhead > MAX_READAHEAD) EnvReadAhead = MAX_READAHEAD;
 		
 		mainWindow = new WindowPlayer(map);
 	}
@@ -145,7 +255,14 @@ public final class Behaviour extends baseUI.Behaviour {
 		map.putInt(CFG_KEYSEL, KeySel);
 		map.putInt(CFG_ENVCONTROLBUTTONS, EnvControlButtons);
 		map.putBoolean(CFG_ENVVOLUMECONTROL, EnvVolumeControl);
-		map.putBoolean(CFG_ENVLOADNEXTSONG, EnvLoadNextSong);
+		map.putBoolean(CFG_ENVNORMALIZEVOLUME, EnvNormalizeVolume);
+		map.putBoolean(CFG_ENVLOADNEXTSONG, EnvPrefetchSlots > 0);
+		map.putInt(CFG_ENVPREFETCHSLOTS, EnvPrefetchSlots);
+		map.putInt(CFG_ENVCROSSFADE, EnvCrossfadeSec);
+		map.putInt(CFG_ENVPREFETCHDELAY, EnvPrefetchDelaySec);
+		map.putBoolean(CFG_ENVPREFETCHAUTO, EnvPrefetchAuto);
+		map.putBoolean(CFG_ENVBYTESEEK, EnvByteSeek);
+		map.putInt(CFG_ENVREADAHEAD, EnvReadAhead);
 		map.putInt(CFG_SONGFORMAT, Song.Format);
 		map.putString(CFG_BROWSERFOLDER, WindowBrowser.getCurrentFolder());
 		
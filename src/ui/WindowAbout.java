@@ -37,6 +37,8 @@ import baseControls.StaticTextBox;
 import baseGraphics.Font;
 import baseUI.Command;
 import baseUI.Main;
+import baseUI.Menu;
+import baseUI.MenuItem;
 import baseUI.MessageListener;
 import baseUI.MessageThread;
 import baseUI.Window;
@@ -46,21 +48,38 @@ import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 import javax.microedition.media.Manager;
 
+import player.Bookmarks;
+import player.LoudnessAnalyzer;
+import player.MetadataCache;
 import player.Player;
+import player.Song;
+import player.UnplayableMemo;
 
 final class WindowAbout extends Window implements MessageListener {
-	private final Command commandRefresh, commandBack;
+	private final Player player;
+	private final Command commandRefresh, commandMenu, commandBack;
 	private final StaticTextBox txtInfo;
+	private final Song[] sample;
 	private Image icon;
+	private String tagBenchmark;
+	private boolean benchmarking;
 	
 	private static final int MSG_LOADICON = 0x0001;
+	private static final int MSG_TAGBENCHMARK = 0x0002;
+	private static final int MSG_EXPORT = 0x0003;
 	
-	public WindowAbout() {
+	private static final String ExportFileName = "fplay-latencia.csv";
+	private static final String[] PhaseNames = { null, "Na fila", "Criado", "Realizado", "Pré-carregado", "Iniciado", "Audível" };
+	
+	public WindowAbout(Player player, Song[] sample) {
 		super(Math.max(48, Math.max(Main.FontTitle.height + ((Font.getSmall().height * 3) >> 1), Main.Customizer.getTitleHeight())));
+		this.player = player;
+		this.sample = sample;
 		
 		(new MessageThread(this)).start(MSG_LOADICON);
 		
 		commandRefresh = new Command("Atualizar", 1);
+		commandMenu = Main.commandMenu();
 		commandBack = Main.commandBack();
 		
 		txtInfo = new StaticTextBox(getContainer(), 0, 0, getWidth() - Main.Customizer.getScrollWidth(), 0, "", true);
@@ -78,7 +97,7 @@ final class WindowAbout extends Window implements MessageListener {
 	}
 
 	protected final Command getMiddleCommand() {
-		return null;
+		return commandMenu;
 	}
 
 	protected final Command getRightCommand() {
@@ -94,6 +113,15 @@ final class WindowAbout extends Window implements MessageListener {
 			} catch (Throwable ex) {
 			}
 			break;
+		case MSG_TAGBENCHMARK:
+			//how long it takes to read the metadata of a few songs of the list
+			tagBenchmark = Song.benchmarkMetaData(sample);
+			benchmarking = false;
+			refreshInfo();
+			break;
+		case MSG_EXPORT:
+			exportLatency();
+			break;
 		}
 	}
 	
@@ -102,15 +130,119 @@ final class WindowAbout extends Window implements MessageListener {
 		getContainer().reposition(0, getTitleHeight(), getWidth(), getHeight() - getTitleHeight(), false);
 	}
 	
+	public final void eventMenuCommand(Menu menu, MenuItem item) {
+		switch (item.getId()) {
+		case 1:
+			//the benchmark creates players, which could take the audio
+			//device from the song being played, so it only runs on request
+			if (!benchmarking) {
+				benchmarking = true;
+				refreshInfo();
+				(new MessageThread(this, "Tag Benchmark")).start(MSG_TAGBENCHMARK);
+			}
+			break;
+		case 2:
+			(new MessageThread(this, "Export")).start(MSG_EXPORT);
+			break;
+		}
+	}
+	
 	public final void eventCommand(Command command) {
 		if (command.equals(commandRefresh)) {
 			refreshInfo();
+		} else if (command.equals(commandMenu)) {
+			showMenu(1, (sample != null && sample.length > 0) ? new MenuItem[] {
+					new MenuItem("Medir Títulos", 1),
+					new MenuItem("Exportar Latência", 2)
+				} : new MenuItem[] {
+					new MenuItem("Exportar Latência", 2)
+				});
 		} else if (command.equals(commandBack)) {
 			icon = null;
 			close();
 		}
 	}
 	
+	private static void appendStartup(StringBuffer sb, Player player, boolean deferred) {
+		if (player.getStartupCount(deferred) == 0) {
+			sb.append('-');
+			return;
+		}
+		sb.append(player.getStartupMS(deferred));
+		sb.append(" ms (");
+		sb.append(player.getStartupBusyMS(deferred));
+		sb.append(" ms ocupado, ");
+		sb.append(player.getStartupCount(deferred));
+		sb.append("x)");
+	}
+	
+	private static void appendGap(StringBuffer sb, int gap) {
+		//measured from the moment the previous player actually stopped
+		if (gap >= 0) {
+			sb.append(gap);
+			sb.append(" ms de intervalo");
+		} else {
+			sb.append(-gap);
+			sb.append(" ms de sobreposição");
+		}
+	}
+	
+	private static void appendLatency(StringBuffer sb, Player player, boolean automatic) {
+		sb.append(player.getLatencyCount(automatic));
+		sb.append(" amostras");
+		for (int i = 1; i < Player.LatencyPhaseCount; i++) {
+			final int p50 = player.getLatencyPercentileMS(i, 50, automatic);
+			if (p50 < 0) continue;
+			sb.append("\n  ");
+			sb.append(PhaseNames[i]);
+			sb.append(": ");
+			sb.append(p50);
+			sb.append('/');
+			sb.append(player.getLatencyPercentileMS(i, 90, automatic));
+			sb.append('/');
+			sb.append(player.getLatencyPercentileMS(i, 100, automatic));
+		}
+	}
+	
+	private final void exportLatency() {
+		//the samples go to the folder open in the browser, where the
+		//user can find them
+		final String folder = WindowBrowser.getCurrentFolder();
+		if (folder == null || folder.length() == 0) {
+			Main.alertShow("Abra uma pasta no navegador primeiro!", true);
+			return;
+		}
+		javax.microedition.io.file.FileConnection fc = null;
+		java.io.OutputStream os = null;
+		try {
+			fc = (javax.microedition.io.file.FileConnection)javax.microedition.io.Connector.open("file:///" + folder + ExportFileName, javax.microedition.io.Connector.READ_WRITE);
+			if (fc.exists()) {
+				fc.truncate(0);
+			} else {
+				fc.create();
+			}
+			os = fc.openOutputStream();
+			os.write(player.exportLatency().getBytes());
+			os.flush();
+			Main.alertShow("Exportado para " + folder + ExportFileName, false);
+		} catch (Throwable ex) {
+			Main.alertShow("Erro: " + ex.getMessage(), true);
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (Throwable ex) {
+				}
+			}
+			if (fc != null) {
+				try {
+					fc.close();
+				} catch (Throwable ex) {
+				}
+			}
+		}
+	}
+	
 	private final void refreshInfo() {
 		System.gc();
 		
@@ -132,6 +264,92 @@ final class WindowAbout extends Window implements MessageListener {
 		
 		sb.append('\n');
 		
+		sb.append("Reprodução\n");
+		sb.append("Transições: ");
+		sb.append(player.getTransitionCount());
+		if (player.getTransitionCount() > 0) {
+			sb.append("\nÚltima: ");
+			appendGap(sb, player.getLastTransitionGapMS());
+			sb.append("\nMediana: ");
+			appendGap(sb, player.getTransitionGapPercentileMS(50));
+			sb.append("\nPior: ");
+			appendGap(sb, player.getTransitionGapPercentileMS(100));
+		}
+		sb.append("\nAntecipação: ");
+		sb.append(player.getHandoffLeadMS());
+		sb.append(" ms\nDespertares: ");
+		sb.append(player.getWakeupsPerMinute());
+		sb.append(" por minuto\nInício: ");
+		appendStartup(sb, player, false);
+		sb.append("\nInício (adiado): ");
+		appendStartup(sb, player, true);
+		sb.append("\nPré-carregadas: ");
+		sb.append(player.getPrefetchDecisionCount(2));
+		sb.append("\nSó preparadas: ");
+		sb.append(player.getPrefetchDecisionCount(1));
+		sb.append("\nSem memória: ");
+		sb.append(player.getPrefetchDecisionCount(0));
+		sb.append(" (");
+		sb.append(player.getPrefetchReleaseCount());
+		sb.append(" liberadas)");
+		//p50/p90/max since the request (or since the end of the
+		//previous song, for the transitions)
+		sb.append("\nLatência (ms, p50/p90/máx)\nPedidos: ");
+		appendLatency(sb, player, false);
+		sb.append("\nTransições: ");
+		appendLatency(sb, player, true);
+		sb.append("\nArquivos com erro: ");
+		sb.append(UnplayableMemo.getCount());
+		sb.append(" (");
+		sb.append(UnplayableMemo.getSkippedCount());
+		sb.append(" pulados)");
+		sb.append("\nSem análise de volume: ");
+		sb.append(LoudnessAnalyzer.getSkippedCount());
+		sb.append("\nMarcadores: ");
+		sb.append(Bookmarks.getCount());
+		sb.append(" (");
+		sb.append(Bookmarks.getResumedCount());
+		sb.append(" retomados)");
+		if (player.getReadAheadFillPercent() >= 0) {
+			sb.append("\nLeitura antecipada: ");
+			sb.append(player.getReadAheadFillPercent());
+			sb.append("% cheia, ");
+			sb.append(player.getReadAheadStallCount());
+			sb.append(" esperas (");
+			sb.append(player.getReadAheadStallMS());
+			sb.append(" ms)");
+		}
+		sb.append("\nInícios em memória: ");
+		sb.append(player.getHeadCacheHitCount());
+		sb.append('/');
+		sb.append(player.getHeadCacheLoadCount());
+		sb.append(" (");
+		sb.append(player.getHeadCacheByteCount() >> 10);
+		sb.append(" KB)");
+		sb.append('\n');
+		
+		sb.append('\n');
+		
+		sb.append("Cache de títulos\nItens: ");
+		sb.append(MetadataCache.getEntryCount());
+		sb.append(" (");
+		sb.append(MetadataCache.getByteCount() >> 10);
+		sb.append(" KB)\nAcertos: ");
+		sb.append(MetadataCache.getHitRate());
+		sb.append("% (");
+		sb.append(MetadataCache.getHitCount());
+		sb.append('/');
+		sb.append(MetadataCache.getLookupCount());
+		sb.append(")\nDesatualizados: ");
+		sb.append(MetadataCache.getStaleCount());
+		sb.append("\n\n");
+		
+		if (benchmarking || tagBenchmark != null) {
+			sb.append("Leitura de títulos\n");
+			sb.append((tagBenchmark != null) ? tagBenchmark : "Medindo...\n");
+			sb.append('\n');
+		}
+		
 		String s;
 		s = System.getProperty("microedition.configuration");
 		if (s != null) {
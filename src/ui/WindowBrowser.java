@@ -171,6 +171,11 @@ final class WindowBrowser extends Window implements ControlListener, MessageList
 			case 2: //Adicionar Arquivo
 				eventControl(listBox, ListBox.EVENT_ITEMSELECTED, listBox.selectedIndex(), listBox.selectedItem());
 				break;
+			case 3: //Tocar Depois
+				//the player window already tells why it failed
+				if (player.enqueue(new Song(((BrowserItem)listBox.selectedItem()).getItemFullPath(CurrentDir))))
+					Main.alertShow("Adicionado à fila", false);
+				break;
 			default:
 				browserFolderAdd(((BrowserItem)listBox.selectedItem()).getItemFullPath(CurrentDir), (item.getId() & 1) != 0, (item.getId() & 8) != 0);
 				break;
@@ -196,6 +201,7 @@ final class WindowBrowser extends Window implements ControlListener, MessageList
 					new MenuItem("Retornar ao Player", 1),
 					null,
 					new MenuItem("Adicionar Arquivo", 2),
+					new MenuItem("Tocar Depois", 3)
 				});
 			} else {
 				showMenu(1, new MenuItem[] {
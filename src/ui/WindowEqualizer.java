@@ -41,6 +41,8 @@ import baseUI.ControlListener;
 import baseUI.Main;
 import baseUI.Menu;
 import baseUI.MenuItem;
+import baseUI.MessageListener;
+import baseUI.MessageThread;
 import baseUI.OverlayAlert;
 import baseUI.OverlayListener;
 import baseUI.Window;
@@ -52,12 +54,14 @@ import commonDialogs.FormTextListener;
 import player.Equalizer;
 import player.Preset;
 
-final class WindowEqualizer extends Window implements ControlListener, FormTextListener, OverlayListener {
+final class WindowEqualizer extends Window implements ControlListener, FormTextListener, OverlayListener, MessageListener {
 	private final Equalizer equalizer;
 	private final Command commandBack, commandMenu, commandSelect;
 	private final ItemChoice chkEnabled;
 	private final ListBox listBox;
-	private boolean doneAtLeastOnce;
+	private boolean doneAtLeastOnce, benchmarking;
+	
+	private static final int MSG_BENCHMARK = 0x0001;
 	
 	public WindowEqualizer(Equalizer equalizer) {
 		super(Main.Customizer.getTitleHeight());
@@ -139,6 +143,16 @@ final class WindowEqualizer extends Window implements ControlListener, FormTextL
 		}
 	}
 
+	public final void eventMessage(int message, int iParam, Object oParam) {
+		switch (message) {
+		case MSG_BENCHMARK:
+			final String report = equalizer.benchmark();
+			benchmarking = false;
+			Main.alertShow("Desempenho (tempo real = 1.0x)\n" + report, false);
+			break;
+		}
+	}
+	
 	public final void eventOverlay(int alertId, int replyCode) {
 		switch (alertId) {
 		case 1:
@@ -196,6 +210,12 @@ final class WindowEqualizer extends Window implements ControlListener, FormTextL
 			case 5: //Renomear...
 				Main.showForm(new FormText("Renomear Preset", "Nome do preset", listBox.selectedItem().toString(), 1, 1, 64, this));
 				break;
+			case 6: //Desempenho...
+				if (!benchmarking) {
+					benchmarking = true;
+					(new MessageThread(this, "Equalizer Benchmark")).start(MSG_BENCHMARK);
+				}
+				break;
 			}
 		}
 	}
@@ -215,7 +235,7 @@ final class WindowEqualizer extends Window implements ControlListener, FormTextL
 								null,
 								new MenuItem("Criar Preset...", 3),
 								new MenuItem("Excluir...", 4)
-							});
+							}, benchmarkItem());
 				} else {
 					showMenu(1,
 							new MenuItem[] {
@@ -224,19 +244,35 @@ final class WindowEqualizer extends Window implements ControlListener, FormTextL
 								new MenuItem("Selecionar", 2),
 								null,
 								new MenuItem("Criar Preset...", 3)
-							});
+							}, benchmarkItem());
 				}
 			} else {
 				showMenu(1,
 						new MenuItem[] {
 							new MenuItem("Criar Preset...", 3)
-						});
+						}, benchmarkItem());
 			}
 		} else if (command.equals(commandBack)) {
 			close();
 		}
 	}
 	
+	private final MenuItem benchmarkItem() {
+		//only the software equalizer depends on the speed of the device
+		return (equalizer.isSoftware() ? new MenuItem("Desempenho...", 6) : null);
+	}
+	
+	private final void showMenu(int id, MenuItem[] items, MenuItem extraItem) {
+		if (extraItem == null) {
+			showMenu(id, items);
+		} else {
+			final MenuItem[] all = new MenuItem[items.length + 2];
+			System.arraycopy(items, 0, all, 0, items.length);
+			all[items.length + 1] = extraItem;
+			showMenu(id, all);
+		}
+	}
+	
 	protected final void paintTitleText(Graphics g, int screenTitleX, int screenTitleY) {
 		drawTextAsTitle(g, "Equalizador", screenTitleX, screenTitleY);
 	}
@@ -43,15 +43,18 @@ import baseUI.OverlayListener;
 import baseUI.Window;
 import javax.microedition.lcdui.Graphics;
 import player.Player;
+import player.UnplayableMemo;
 
 final class WindowOptions extends Window implements OverlayListener, ControlListener {
+	private static final int[] PrefetchDelays = { 0, 5, 10, 20, 30, 60 };
+	
 	private final Player player;
 	
 	private final int envFont, envVibrate, envVisualEffects;
 	private final boolean envMenu, envPreventVerticalMenu, envRightHanded;
 	private final Command commandSave, commandCancel;
 	private final int[] availableTransitions;
-	private final ItemChoice itemMenu, itemPreventVerticalMenu, itemFont, itemVisual, itemTransition, itemVolumeControl, itemSongFormat, itemRightHanded, itemTouchFeedback, itemControlPlayback, itemLoadNext;
+	private final ItemChoice itemMenu, itemPreventVerticalMenu, itemFont, itemVisual, itemTransition, itemVolumeControl, itemSongFormat, itemRightHanded, itemTouchFeedback, itemControlPlayback, itemLoadNext, itemPrefetchDelay, itemCrossfade, itemSeek, itemReadAhead, itemUnplayable;
 	private final DigitInputBox textSS;
 	
 	public WindowOptions(Player player) {
@@ -80,7 +83,7 @@ final class WindowOptions extends Window implements OverlayListener, ControlList
 		}
 		itemTransition = new ItemChoice(getContainer(), 0, 0, 16, this, "Transição:", transitionNames);
 		
-		itemVolumeControl = new ItemChoice(getContainer(), 0, 0, 16, this, "Controle de volume:", new String[] { "Desabilitado", "Habilitado" });
+		itemVolumeControl = new ItemChoice(getContainer(), 0, 0, 16, this, "Controle de volume:", new String[] { "Desabilitado", "Habilitado", "Normalizado" });
 		itemSongFormat = new ItemChoice(getContainer(), 0, 0, 16, this, "Formato dos títulos:", new String[] { "Nome do arquivo", "Título", "Título - Artista", "Título - Autor", "Artista - Título", "Autor - Título" });
 		
 		textSS = new DigitInputBox(getContainer(), 0, 0, 16, false, "Tempo para tela preta:");
@@ -90,7 +93,7 @@ final class WindowOptions extends Window implements OverlayListener, ControlList
 		itemFont.setSelectedIndex(envFont);
 		itemVisual.setSelectedIndex(envVisualEffects);
 		itemTransition.setSelectedIndex(transitionToIndex(Main.environmentGetTransition()));
-		itemVolumeControl.setSelectedIndex(Behaviour.environmentHasVolumeControl() ? 1 : 0);
+		itemVolumeControl.setSelectedIndex(Behaviour.environmentGetNormalizeVolume() ? 2 : (Behaviour.environmentHasVolumeControl() ? 1 : 0));
 		itemSongFormat.setSelectedIndex(Behaviour.environmentGetSongFormat());
 		textSS.setDigitLimit(3);
 		textSS.setInt((Main.SSThreshold > 300000 || Main.SSThreshold <= 1000) ? 0 : (int)(Main.SSThreshold / 1000) - 1);
@@ -98,10 +101,24 @@ final class WindowOptions extends Window implements OverlayListener, ControlList
 		if (player.isRadioMode()) {
 			itemLoadNext = new ItemChoice(getContainer(), 0, 0, 16, this, "Rádio estéreo:", new String[] { "Não", "Sim" });
 			itemLoadNext.setSelectedIndex(player.isRadioStereo() ? 1 : 0);
+			itemPrefetchDelay = null;
+			itemCrossfade = null;
+			itemSeek = null;
+			itemReadAhead = null;
 		} else {
-			itemLoadNext = new ItemChoice(getContainer(), 0, 0, 16, this, "Pré-carregar músicas:", new String[] { "Não", "Sim" });
-			itemLoadNext.setSelectedIndex(Behaviour.environmentGetLoadNextSong() ? 1 : 0);
+			//0 = no, 1 = automatic, 2 onwards = a fixed number of songs
+			itemLoadNext = new ItemChoice(getContainer(), 0, 0, 16, this, "Pré-carregar músicas:", new String[] { "Não", "Automático", "1 música", "2 músicas", "3 músicas", "4 músicas" });
+			itemLoadNext.setSelectedIndex(Behaviour.environmentIsPrefetchAuto() ? 1 : ((Behaviour.environmentGetPrefetchSlots() == 0) ? 0 : (Behaviour.environmentGetPrefetchSlots() + 1)));
+			itemPrefetchDelay = new ItemChoice(getContainer(), 0, 0, 16, this, "Pré-carregar após:", new String[] { "Início", "5 s", "10 s", "20 s", "30 s", "60 s" });
+			itemPrefetchDelay.setSelectedIndex(prefetchDelayToIndex(Behaviour.environmentGetPrefetchDelaySec()));
+			itemCrossfade = new ItemChoice(getContainer(), 0, 0, 16, this, "Transição entre músicas:", new String[] { "Imediata", "1 s", "2 s", "3 s", "4 s", "5 s", "6 s", "7 s", "8 s", "9 s", "10 s" });
+			itemCrossfade.setSelectedIndex(Behaviour.environmentGetCrossfadeSec());
+			itemSeek = new ItemChoice(getContainer(), 0, 0, 16, this, "Busca em MP3:", new String[] { "Normal", "Pelo arquivo" });
+			itemSeek.setSelectedIndex(Behaviour.environmentGetByteSeek() ? 1 : 0);
+			itemReadAhead = new ItemChoice(getContainer(), 0, 0, 16, this, "Leitura antecipada:", new String[] { "Não", "64 KB", "128 KB", "256 KB" });
+			itemReadAhead.setSelectedIndex(Behaviour.environmentGetReadAhead());
 		}
+		itemUnplayable = new ItemChoice(getContainer(), 0, 0, 16, this, "Arquivos com erro:", new String[] { "Pular (" + UnplayableMemo.getCount() + ")", "Tentar de novo" });
 		
 		getContainer().addControl(itemMenu, false);
 		getContainer().addControl(itemPreventVerticalMenu, false);
@@ -111,6 +128,15 @@ final class WindowOptions extends Window implements OverlayListener, ControlList
 		getContainer().addControl(itemVolumeControl, false);
 		getContainer().addControl(itemSongFormat, false);
 		getContainer().addControl(itemLoadNext, false);
+		if (itemPrefetchDelay != null)
+			getContainer().addControl(itemPrefetchDelay, false);
+		if (itemCrossfade != null)
+			getContainer().addControl(itemCrossfade, false);
+		if (itemSeek != null)
+			getContainer().addControl(itemSeek, false);
+		if (itemReadAhead != null)
+			getContainer().addControl(itemReadAhead, false);
+		getContainer().addControl(itemUnplayable, false);
 		
 		if (Main.environmentHasPointer()) {
 			itemTouchFeedback = new ItemChoice(getContainer(), 0, 0, 16, this, "Efeitos do toque:", new String[] { "Desabilitado", "Nível 1", "Nível 2", "Nível 3", "Padrão" });
@@ -135,6 +161,13 @@ final class WindowOptions extends Window implements OverlayListener, ControlList
 		getContainer().processLayout();
 	}
 	
+	private static int prefetchDelayToIndex(int delaySec) {
+		//the closest option that is not longer than delaySec
+		int i = PrefetchDelays.length - 1;
+		while (i > 0 && PrefetchDelays[i] > delaySec) i--;
+		return i;
+	}
+	
 	private final int transitionToIndex(int transition) {
 		for (int i = 0; i < availableTransitions.length; i++) {
 			if (availableTransitions[i] == transition) {
@@ -195,13 +228,24 @@ final class WindowOptions extends Window implements OverlayListener, ControlList
 		itemSongFormat.reposition(0, itemVolumeControl.getBottom(), usableWidth, 0, false);
 		itemLoadNext.reposition(0, itemSongFormat.getBottom(), usableWidth, 0, false);
 		
+		if (itemCrossfade != null) {
+			itemPrefetchDelay.reposition(0, itemLoadNext.getBottom(), usableWidth, 0, false);
+			itemCrossfade.reposition(0, itemPrefetchDelay.getBottom(), usableWidth, 0, false);
+			itemSeek.reposition(0, itemCrossfade.getBottom(), usableWidth, 0, false);
+			itemReadAhead.reposition(0, itemSeek.getBottom(), usableWidth, 0, false);
+			itemUnplayable.reposition(0, itemReadAhead.getBottom(), usableWidth, 0, false);
+		} else {
+			itemUnplayable.reposition(0, itemLoadNext.getBottom(), usableWidth, 0, false);
+		}
+		final ItemChoice itemLast = itemUnplayable;
+		
 		if (itemTouchFeedback != null) {
-			itemTouchFeedback.reposition(0, itemLoadNext.getBottom(), usableWidth, 0, false);
+			itemTouchFeedback.reposition(0, itemLast.getBottom(), usableWidth, 0, false);
 			itemRightHanded.reposition(0, itemTouchFeedback.getBottom(), usableWidth, 0, false);
 			itemControlPlayback.reposition(0, itemRightHanded.getBottom(), usableWidth, 0, false);
 		}
 		
-		textSS.reposition(0, ((itemTouchFeedback != null) ? itemControlPlayback : itemLoadNext).getBottom(), usableWidth, 0, false);
+		textSS.reposition(0, ((itemTouchFeedback != null) ? itemControlPlayback : itemLast).getBottom(), usableWidth, 0, false);
 		
 		getContainer().reposition(0, getTitleHeight(), getWidth(), getHeight() - getTitleHeight(), false);
 	}
@@ -223,11 +267,21 @@ final class WindowOptions extends Window implements OverlayListener, ControlList
 				if ((itemLoadNext.getSelectedIndex() != 0) != player.isRadioStereo())
 					player.setRadioStereo(itemLoadNext.getSelectedIndex() != 0);
 			} else {
-				if ((itemLoadNext.getSelectedIndex() != 0) != Behaviour.environmentGetLoadNextSong()) {
-					Behaviour.environmentSetLoadNextSong(itemLoadNext.getSelectedIndex() != 0);
-					if (itemLoadNext.getSelectedIndex() == 0)
+				final int index = itemLoadNext.getSelectedIndex();
+				final boolean auto = (index == 1);
+				final int slots = ((index <= 1) ? 0 : (index - 1));
+				if (auto != Behaviour.environmentIsPrefetchAuto() || slots != Behaviour.environmentGetPrefetchSlots()) {
+					//fewer slots also means the extra prepared songs must go
+					final int capacity = (auto ? Behaviour.MAX_PREFETCHSLOTS : slots);
+					if (capacity < Behaviour.environmentGetPrefetchCapacity())
 						player.clearNext();
+					Behaviour.environmentSetPrefetchAuto(auto);
+					Behaviour.environmentSetPrefetchSlots(slots);
 				}
+				Behaviour.environmentSetPrefetchDelaySec(PrefetchDelays[itemPrefetchDelay.getSelectedIndex()]);
+				Behaviour.environmentSetCrossfadeSec(itemCrossfade.getSelectedIndex());
+				Behaviour.environmentSetByteSeek(itemSeek.getSelectedIndex() != 0);
+				Behaviour.environmentSetReadAhead(itemReadAhead.getSelectedIndex());
 			}
 			
 			if (itemSongFormat.getSelectedIndex() != Behaviour.environmentGetSongFormat()) {
@@ -236,8 +290,14 @@ final class WindowOptions extends Window implements OverlayListener, ControlList
 					return;
 				}
 			}
+			if (itemUnplayable.getSelectedIndex() != 0) {
+				//every file will be given another chance
+				UnplayableMemo.clear();
+				UnplayableMemo.save();
+			}
 			Main.environmentSetTransition(transitionFromIndex(itemTransition.getSelectedIndex()));
 			Behaviour.environmentSetVolumeControl(itemVolumeControl.getSelectedIndex() != 0);
+			Behaviour.environmentSetNormalizeVolume(itemVolumeControl.getSelectedIndex() == 2);
 			if (itemControlPlayback != null) {
 				Behaviour.environmentSetControlButtons(itemControlPlayback.getSelectedIndex());
 			}
@@ -44,6 +44,7 @@ import baseUI.MessageThread;
 import baseUI.Window;
 import baseUtil.Map;
 import baseControls.Button;
+import baseControls.ItemPainter;
 import baseControls.ListBox;
 import baseGraphics.Point;
 import baseIO.File;
@@ -53,25 +54,41 @@ import commonDialogs.WindowKeyConfigListener;
 import commonDialogs.WindowFileChooser;
 import commonDialogs.WindowFileChooserListener;
 import javax.microedition.lcdui.Graphics;
+import player.Bookmarks;
 import player.Equalizer;
+import player.LoudnessAnalyzer;
+import player.LoudnessListener;
+import player.MetadataCache;
 import player.Player;
 import player.PlayerListener;
+import player.PlayerState;
+import player.ShuffleOrder;
 import player.Song;
 import player.SongList;
+import player.UnplayableMemo;
+import player.URLResolver;
 
-final class WindowPlayer extends Window implements MessageListener, PlayerListener, ControlListener, WindowFileChooserListener, WindowKeyConfigListener {
+final class WindowPlayer extends Window implements MessageListener, PlayerListener, LoudnessListener, ControlListener, ItemPainter, WindowFileChooserListener, WindowKeyConfigListener {
 	private final Player player;
-	private boolean hasChangedPosition, hasListChanged, isCarMode, isChangingMode;
+	private boolean hasChangedPosition, hasListChanged, isCarMode, isChangingMode, isShuffle,
+				cycleEntered; //the list has already moved onto cycleIndex
 	private int cycleIndex,
 				lastIndex, //index of the last played song
 				lastRadioIndex; //index of the last played song in radio mode
 	private int titleY;
 	private final Command commandMenu, commandOK, commandBack, commandCancel, commandExit, commandPrev, commandPause, commandNext, commandMove, commandDelete;
 	private final ListBox listBox;
-	private final StringBuffer titleText;
+	private final ShuffleOrder shuffle; //kept in sync with the list even while not in use
+	private final StringBuffer titleText, itemText;
+	private int listTotalMS; //-1 means it must be computed again
+	private boolean listTotalPartial;
+	private Song listTotalSong;
 	private Button btnPrev, btnPause, btnNext;
 	private final Equalizer equalizer;
 	private MessageThread thread;
+	private LoudnessAnalyzer analyzer;
+	private int analyzerCursor;
+	private boolean analyzerStale;
 	
 	private static final int CFG_VOLUME = 0x0101;
 	private static final int CFG_LASTINDEX = 0x0102;
@@ -80,6 +97,8 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 	private static final int CFG_ISRADIOSTEREO = 0x0105;
 	private static final int CFG_ISCARMODE = 0x0106;
 	private static final int CFG_LASTTIME = 0x0107;
+	private static final int CFG_ANALYZERCURSOR = 0x0108;
+	private static final int CFG_ISSHUFFLE = 0x0109;
 	
 	private static final int MSG_LISTOPEN = 0x0001;
 	private static final int MSG_LISTSAVE = 0x0002;
@@ -95,7 +114,10 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 		boolean isRadioMode = false, isRadioStereo = true;
 		
 		cycleIndex = -1;
+		shuffle = new ShuffleOrder();
 		titleText = new StringBuffer();
+		itemText = new StringBuffer(8);
+		listTotalMS = -1;
 		
 		commandMenu = Main.commandMenu();
 		commandOK = Main.commandOK();
@@ -109,6 +131,7 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 		commandDelete = new Command(null, 21);
 		listBox = new ListBox(getContainer(), 0, 0, 16, 16);
 		listBox.setListener(this);
+		listBox.setItemPainter(this);
 		listBox.setProcessingLongPress(true);
 		getContainer().addControl(listBox, true);
 		preparePlaybackControls();
@@ -121,9 +144,13 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 		isRadioStereo = map.getBoolean(CFG_ISRADIOSTEREO, false);
 		isCarMode = map.getBoolean(CFG_ISCARMODE, false);
 		lasttime = map.getInt(CFG_LASTTIME, 0);
+		isShuffle = map.getBoolean(CFG_ISSHUFFLE, false);
+		URLResolver.loadConfig(map);
 		
 		listLoad_(isRadioMode ? "listRDefault" : "listDefault");
 		
+		analyzerCursor = map.getInt(CFG_ANALYZERCURSOR, 0);
+		
 		/*listBox.addItem(new Song("sons/som1.wav"));
 		listBox.addItem(new Song("sons/som2.wav"));
 		listBox.addItem(new Song("sons/som3.wav"));
@@ -157,6 +184,8 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 		player = new Player(volume, lasttime, currentSong, this, isRadioMode, isRadioStereo);
 		equalizer = Equalizer.createEqualizer(player, map);
 		
+		analyzerStart();
+		
 		//resetGlobalVolume();
 	}
 	
@@ -170,11 +199,17 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 	}
 	
 	public final void terminate() {
+		analyzerStop();
 		player.terminate();
 		
 		//save the default list
 		listSaveDefault_();
 		
+		MetadataCache.save();
+		UnplayableMemo.save();
+		Bookmarks.save();
+		player.saveQueue();
+		
 		Main.configSave();
 	}
 	
@@ -190,6 +225,9 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 		map.putBoolean(CFG_ISRADIOSTEREO, player.isRadioStereo());
 		map.putBoolean(CFG_ISCARMODE, isCarMode);
 		map.putInt(CFG_LASTTIME, player.getTimeTrackMS());
+		map.putInt(CFG_ANALYZERCURSOR, (analyzer != null) ? analyzer.getCursor() : analyzerCursor);
+		map.putBoolean(CFG_ISSHUFFLE, isShuffle);
+		URLResolver.saveConfig(map);
 		equalizer.saveConfig(map);
 	}
 	
@@ -285,15 +323,27 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 				if (listBox.selectedIndex() < 0) break;
 				final Point pt = (Point) eventArg2;
 				listBox.clientPointToScreen(pt);
-				showMenu(5, new MenuItem[] {
+				showMenu(5, player.isRadioMode() ? new MenuItem[] {
+					new MenuItem("Iniciar Seleção", 1),
+					new MenuItem("Mover Selecionado", 2),
+					null,
+					new MenuItem("Remover", 3)
+				} : new MenuItem[] {
 					new MenuItem("Iniciar Seleção", 1),
 					new MenuItem("Mover Selecionado", 2),
+					new MenuItem("Tocar Depois", 4),
 					null,
 					new MenuItem("Remover", 3)
 				}, pt.x, pt.y);
 				break;
 			case ListBox.EVENT_SELECTIONCHANGED:
 				hasChangedPosition = true;
+				//the user may be heading for a song to play
+				player.selectionChanged();
+				break;
+			case ListBox.EVENT_ITEMSMOVED:
+				final Point moved = (Point) eventArg2;
+				shuffle.move(moved.x, moved.y, eventArg1);
 				break;
 			case ListBox.EVENT_ITEMSELECTED:
 				if (listBox.isMarking()) {
@@ -320,6 +370,14 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 				invalidateTitle();
 			}
 		}
+		if ((changedFlags & (Behaviour.ENV_VOLUMECONTROL | Behaviour.ENV_NORMALIZEVOLUME)) != 0) {
+			if (Behaviour.environmentGetNormalizeVolume()) {
+				analyzerStart();
+			} else {
+				analyzerStop();
+			}
+			player.refreshVolume();
+		}
 		super.eventEnvironment(changedFlags);
 	}
 	
@@ -432,6 +490,12 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 			case 3: //Salvar...
 				Main.openWindow(new WindowFileChooser(1, false, player.isRadioMode() ? 'r' : 'l', false, "Salvar Lista", this));
 				break;
+			case 4: //Aleatório
+				setShuffle(!isShuffle);
+				break;
+			case 5: //Limpar Fila
+				player.clearQueue();
+				break;
 			}
 			break;
 
@@ -475,7 +539,24 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 				}
 				break;
 			case 5: //Sobre
-				Main.openWindow(new WindowAbout());
+				Main.openWindow(new WindowAbout(player, listSample(8)));
+				break;
+			}
+			break;
+
+		case 6: //position menu
+			switch (item.getId()) {
+			case 1: //Voltar 30 s
+				player.seekBy(-30000);
+				break;
+			case 2: //Avançar 30 s
+				player.seekBy(30000);
+				break;
+			case 3: //Voltar 5 min
+				player.seekBy(-300000);
+				break;
+			case 4: //Avançar 5 min
+				player.seekBy(300000);
 				break;
 			}
 			break;
@@ -489,6 +570,15 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 			case 2: //Remover
 				eventCommand(commandDelete);
 				break;
+				
+			case 3: //Tocar Depois
+				for (int i = listBox.firstMarkedIndex(), n = listBox.markedCount(); n > 0; i++, n--) {
+					if (!enqueue((Song)listBox.itemAt(i))) break;
+				}
+				listBox.setMarking(false);
+				listBox.clearMarks();
+				Main.commandBarRefresh();
+				break;
 			}
 			break;
 
@@ -505,11 +595,24 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 			case 3: //Remover
 				eventCommand(commandDelete);
 				break;
+				
+			case 4: //Tocar Depois
+				enqueue((Song)listBox.selectedItem());
+				break;
 			}
 			break;
 		}
 	}
 	
+	public final boolean enqueue(Song song) {
+		if (song == null) return false;
+		if (!player.enqueue(song)) {
+			Main.alertShow(player.isRadioMode() ? "A fila não funciona no modo rádio!" : "Fila cheia!", true);
+			return false;
+		}
+		return true;
+	}
+	
 	public final void eventCommand(Command command) {
 		if (command.equals(commandExit)) {
 			Main.terminate();
@@ -517,36 +620,65 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 			if (command.equals(commandMenu)) {
 				if (!listBox.isMarking()) {
 					//player menu
-					showMenu(1, new MenuItem[] {
+					final MenuItem listMenu = new MenuItem("Lista", 2, player.isRadioMode() ? new MenuItem[] {
+						new MenuItem("Limpar", 1),
+						new MenuItem("Abrir...", 2),
+						new MenuItem("Salvar...", 3)
+					} : new MenuItem[] {
+						new MenuItem("Limpar", 1),
+						new MenuItem("Abrir...", 2),
+						new MenuItem("Salvar...", 3),
+						null,
+						new MenuItem("Aleatório", isShuffle, 4),
+						new MenuItem("Limpar Fila (" + player.getQueueSize() + ")", 5)
+					});
+					final MenuItem optionsMenu = new MenuItem("Opções", 3, new MenuItem[] {
+						new MenuItem("Geral...", 1),
+						new MenuItem("Teclas...", 2),
+						new MenuItem("Cores...", 3),
+						null,
+						new MenuItem("Esconder", 6),
+						new MenuItem("Equalizador", 4),
+						//null,
+						//player.isRadioMode() ? new MenuItem("Estéreo", player.isRadioStereo()) : new MenuItem("Pré-Carregar Músicas", Behaviour.environmentGetLoadNextSong()),
+						null,
+						new MenuItem("Sobre", 5)
+					});
+					showMenu(1, (player.isRadioMode() || player.getCurrentSong() == null) ? new MenuItem[] {
 						new MenuItem("Redef. Volume", 1), //new MenuItem("Modo Carro", 1),
 						new MenuItem(player.isRadioMode() ? "Ouvir Músicas" : "Ouvir Rádio", 2),
 						new MenuItem(player.isRadioMode() ? "Adicionar Estação..." : "Adicionar Músicas...", 3),
 						null,
-						new MenuItem("Lista", 2, new MenuItem[] {
-							new MenuItem("Limpar", 1),
-							new MenuItem("Abrir...", 2),
-							new MenuItem("Salvar...", 3)
-						}),
+						listMenu,
 						null,
-						new MenuItem("Opções", 3, new MenuItem[] {
-							new MenuItem("Geral...", 1),
-							new MenuItem("Teclas...", 2),
-							new MenuItem("Cores...", 3),
+						optionsMenu
+					} : new MenuItem[] {
+						new MenuItem("Redef. Volume", 1),
+						new MenuItem("Ouvir Rádio", 2),
+						new MenuItem("Adicionar Músicas...", 3),
+						new MenuItem("Posição", 6, new MenuItem[] {
+							new MenuItem("Voltar 30 s", 1),
+							new MenuItem("Avançar 30 s", 2),
 							null,
-							new MenuItem("Esconder", 6),
-							new MenuItem("Equalizador", 4),
-							//null,
-							//player.isRadioMode() ? new MenuItem("Estéreo", player.isRadioStereo()) : new MenuItem("Pré-Carregar Músicas", Behaviour.environmentGetLoadNextSong()),
-							null,
-							new MenuItem("Sobre", 5)
-						})
+							new MenuItem("Voltar 5 min", 3),
+							new MenuItem("Avançar 5 min", 4)
+						}),
+						null,
+						listMenu,
+						null,
+						optionsMenu
 					});
 				} else {
 					//mark menu
-					showMenu(4, new MenuItem[] {
+					showMenu(4, player.isRadioMode() ? new MenuItem[] {
 						new MenuItem("Mover", 1),
 						null,
 						new MenuItem("Remover", 2)
+					} : new MenuItem[] {
+						new MenuItem("Mover", 1),
+						new MenuItem("Tocar Depois", 3),
+						null,
+						new MenuItem("Remover", 2)
 					});
 				}
 			} else if (command.equals(commandOK)) {
@@ -561,7 +693,9 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 			} else if (command.equals(commandPause)) {
 				player.pause();
 			} else if (command.equals(commandNext)) {
-				player.play(getNextPrevSongAndSelect(true));
+				//the songs queued by the user come before the list
+				if (!player.playQueued())
+					player.play(getNextPrevSongAndSelect(true));
 			} else if (command.equals(commandBack) || command.equals(commandCancel)) {
 				if (listBox.isMarking() || listBox.isMoving()) {
 					listBox.setMarking(false);
@@ -578,10 +712,14 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 			} else if (command.equals(commandDelete)) {
 				if (isProcessingThreadFree()) {
 					if (listBox.isMarking() || listBox.isMoving()) {
+						if (listBox.firstMarkedIndex() >= 0) {
+							shuffle.remove(listBox.firstMarkedIndex(), listBox.markedCount());
+						}
 						listBox.removeMarkedItems();
 						listBox.setMarking(false);
 						Main.commandBarRefresh();
 					} else {
+						shuffle.remove(listBox.selectedIndex(), 1);
 						listBox.removeSelectedItem();
 					}
 					listSetChanged();
@@ -632,7 +770,10 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 		final int titY = screenOffsetY + titleY;
 		
 		if (clipY < (titY + getTitleHeight()) && (clipY + clipHeight) > titY) {
-			final Song cursong = player.getCurrentSong();
+			//everything comes from the same snapshot, even if the player
+			//changes in the middle of the painting
+			final PlayerState state = player.getState();
+			final Song cursong = state.getSong();
 			final String[] title = { "", "" };
 			titleText.delete(0, titleText.length());
 			if (cursong == null) {
@@ -641,23 +782,38 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 				title[0] = cursong.getTitle();
 				
 				//update the player stuff
-				if (!player.isSongLoaded()) {
+				switch (state.getStatus()) {
+				case PlayerState.STOPPED:
 					titleText.append("[Parado]");
-				} else {
-					if (player.isPaused()) {
-						titleText.append("[Pausado]");
-					} else if (player.isRadioMode()) {
-						titleText.append("[Recebendo]");
-					} else {
-						int playTime = player.getCurrentPlayTime();
-						titleText.append(playTime / 60);
-						titleText.append('\'');
-						playTime %= 60;
-						if (playTime < 10) titleText.append('0');
-						titleText.append(playTime);
-						titleText.append('\"');
-						titleText.append(player.getCurrentSongLength());
-					}
+					break;
+				case PlayerState.PAUSED:
+					titleText.append("[Pausado]");
+					break;
+				case PlayerState.RECEIVING:
+					titleText.append("[Recebendo]");
+					break;
+				default:
+					int playTime = state.getTimeSec();
+					titleText.append(playTime / 60);
+					titleText.append('\'');
+					playTime %= 60;
+					if (playTime < 10) titleText.append('0');
+					titleText.append(playTime);
+					titleText.append('\"');
+					titleText.append(state.getLength());
+					break;
+				}
+			}
+			
+			if (!player.isRadioMode() && listBox.itemCount() > 0) {
+				if (listTotalMS < 0) listTotalRefresh();
+				if (listTotalMS > 0) {
+					if (titleText.length() > 0)
+						titleText.append(" - ");
+					titleText.append("Lista: ");
+					Song.appendDuration(titleText, listTotalMS);
+					if (listTotalPartial)
+						titleText.append('+');
 				}
 			}
 			
@@ -666,10 +822,10 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 				//volume to its end
 				if (cursong != null)
 					titleText.append(" - ");
-				if (player.getVolume() == 0) {
+				if (state.getVolume() == 0) {
 					titleText.append("Mudo");
 				} else {
-					titleText.append(player.getVolume());
+					titleText.append(state.getVolume());
 					titleText.append('%');
 				}
 			}
@@ -707,16 +863,97 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 	
 	public final void listSetChanged() {
 		hasListChanged = true;
+		listTotalMS = -1;
+		//songs are always added to the end of the list, and removals
+		//are applied to the shuffled order before they happen
+		final int count = listBox.itemCount();
+		if (count > shuffle.size()) {
+			shuffle.append(count, listBox.getHilightIndex());
+		} else if (count < shuffle.size()) {
+			shuffle.shuffle(count, listBox.getHilightIndex());
+		}
+		//songs may have been added, so the analyzer must go through
+		//the list again (right now, if it has already finished)
+		analyzerStale = true;
+		if (analyzer == null) analyzerStart();
+	}
+	
+	private final Song[] listSongs() {
+		final int count = listBox.itemCount();
+		final Song[] songs = new Song[count];
+		for (int i = 0; i < count; i++) {
+			songs[i] = (Song)listBox.itemAt(i);
+		}
+		return songs;
+	}
+	
+	private final Song[] listSample(int max) {
+		//the first songs of the list, used to measure the metadata reading
+		if (player.isRadioMode()) return null;
+		final int count = Math.min(max, listBox.itemCount());
+		final Song[] songs = new Song[count];
+		for (int i = 0; i < count; i++) {
+			songs[i] = (Song)listBox.itemAt(i);
+		}
+		return songs;
+	}
+	
+	private final void analyzerStart() {
+		if (!Behaviour.environmentGetNormalizeVolume() || player == null || player.isRadioMode() || isChangingMode) return;
+		final LoudnessAnalyzer a = analyzer;
+		if (a != null) {
+			if (!analyzerStale) return;
+			//it will stop at the next block
+			a.stop();
+			analyzerCursor = a.getCursor();
+		}
+		analyzerStale = false;
+		if (listBox.itemCount() <= 0) {
+			analyzer = null;
+			return;
+		}
+		analyzer = new LoudnessAnalyzer(listSongs(), analyzerCursor, this);
+		analyzer.start();
+	}
+	
+	private final void analyzerStop() {
+		final LoudnessAnalyzer a = analyzer;
+		if (a != null) {
+			a.stop();
+			analyzerCursor = a.getCursor();
+			analyzer = null;
+		}
+	}
+	
+	public final void gainAnalyzed(Song song) {
+		//the gain is saved along with the list
+		hasListChanged = true;
+		if (song == player.getCurrentSong()) {
+			player.refreshVolume();
+		}
+	}
+	
+	public final void analysisFinished(LoudnessAnalyzer analyzer) {
+		if (this.analyzer == analyzer) {
+			analyzerCursor = analyzer.getCursor();
+			this.analyzer = null;
+			if (analyzerStale) analyzerStart();
+		}
 	}
 	
 	private final boolean listLoad_(String fileName) {
 		if (player != null) player.stopAndWait();
 		
+		//the songs are about to be replaced
+		analyzerStop();
+		analyzerCursor = 0;
+		
 		hasChangedPosition = false;
 		
 		listBox.clear();
 		
 		hasListChanged = false;
+		listTotalMS = -1;
 		
 		final SongList songList = new SongList();
 		
@@ -725,10 +962,19 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 			listBox.invalidate();
 			listBox.selectItem(0);
 			
+			//lists saved without the shuffled order get a new one
+			if (!shuffle.restore(listSongs())) {
+				shuffle.shuffle(listBox.itemCount(), -1);
+			}
+			
 			System.gc();
 			
+			analyzerStart();
+			
 			return true;
 		} else {
+			shuffle.shuffle(0, -1);
+			
 			System.gc();
 			
 			return false;
@@ -736,9 +982,26 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 	}
 	
 	private final boolean listSave_(String fileName) {
+		shuffle.store(listSongs());
 		return (new SongList()).save(fileName, listBox.getIterator());
 	}
 	
+	private final void setShuffle(boolean isShuffle) {
+		this.isShuffle = isShuffle;
+		if (isShuffle) {
+			//the current song comes first, so a whole cycle goes
+			//through every other song exactly once
+			shuffle.shuffle(listBox.itemCount(), listBox.getHilightIndex());
+			hasListChanged = true;
+		}
+		resetSongCycling();
+		player.clearNext();
+	}
+	
+	private final boolean isShuffling() {
+		return (isShuffle && player != null && !player.isRadioMode() && shuffle.size() == listBox.itemCount());
+	}
+	
 	private final void listSaveDefault_() {
 		if (player.isRadioMode()) {
 			lastRadioIndex = listBox.getHilightIndex();
@@ -787,6 +1050,8 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 		
 		isChangingMode = false;
 		
+		analyzerStart();
+		
 		//resetGlobalVolume();
 	}
 	
@@ -833,7 +1098,9 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 	
 	private final int getNextPrevSongIndex(boolean nextSong, boolean updateCurrent) {
 		int i = listBox.getHilightIndex();
-		if (nextSong) {
+		if (isShuffling()) {
+			i = (nextSong ? shuffle.next(i) : shuffle.previous(i));
+		} else if (nextSong) {
 			//try to get the next file
 			i++;
 			if (i >= listBox.itemCount()) {
@@ -886,16 +1153,120 @@ final class WindowPlayer extends Window implements MessageListener, PlayerListen
 				hasChangedPosition = false;
 			}
 		}
-		if (i == cycleIndex) return null;
+		//only coming back to the first song of the cycle ends it (peeking
+		//at that song again and again does not)
+		final boolean cycled = (i == cycleIndex && cycleEntered);
 		if (cycleIndex < 0) cycleIndex = i;
+		if (!justPeakNext && i == cycleIndex) cycleEntered = true;
+		if (cycled) return null;
 		return (Song)listBox.itemAt(i);
 	}
 	
+	public final Song peekSong(int distance) {
+		//must follow the same order used by getNextPrevSongIndex(),
+		//without changing the list
+		final int count = listBox.itemCount();
+		if (count <= 0 || distance == 0) return null;
+		int i = listBox.getHilightIndex();
+		if (i < 0 || i >= count) i = -1;
+		final boolean shuffling = isShuffling();
+		if (distance < 0) {
+			//the songs the previous command would play (the cycle only
+			//matters when going forward)
+			for (; distance < 0; distance++) {
+				if (shuffling) {
+					i = shuffle.previous(i);
+				} else {
+					i--;
+					if (i < 0) i = count - 1;
+				}
+			}
+			return (Song)listBox.itemAt(i);
+		}
+		int start = cycleIndex;
+		for (int step = 1; step <= distance; step++) {
+			if (shuffling) {
+				i = shuffle.next(i);
+			} else {
+				i++;
+				if (i >= count) i = 0;
+			}
+			//do not go past the end of the current cycle, which starts
+			//at the first step when getSong() has not started it yet
+			if (start < 0) start = i;
+			else if (i == start && (step > 1 || cycleEntered)) return null;
+		}
+		return (Song)listBox.itemAt(i);
+	}
+	
+	public final Song getSelectedSong() {
+		if (player == null || player.isRadioMode()) return null;
+		return (Song)listBox.selectedItem();
+	}
+	
 	public final void resetSongCycling() {
 		cycleIndex = -1;
+		cycleEntered = false;
 	}
 	
-	public final void stateChanged() {
-		invalidateTitle();
+	public final boolean isTimeVisible() {
+		return (Main.isMainWindowActive() && Main.isCanvasShown());
+	}
+	
+	public final void stateChanged(int changes) {
+		if ((changes & PlayerState.CHANGED_SONG) != 0) {
+			//the actual duration of a song is only known after it starts,
+			//so the total is computed again whenever the song changes
+			if (listTotalPartial && player.getState().getSong() != listTotalSong) {
+				listTotalMS = -1;
+			}
+			invalidateTitle();
+		} else {
+			//the time, the status and the volume share the second line
+			invalidate(0, titleY + Main.FontTitle.height, getWidth(), getTitleHeight() - Main.FontTitle.height);
+		}
+	}
+	
+	private final void listTotalRefresh() {
+		int total = 0;
+		boolean partial = false;
+		for (int i = listBox.itemCount() - 1; i >= 0; i--) {
+			final int d = ((Song)listBox.itemAt(i)).getDurationMS();
+			if (d < 0) partial = true;
+			else total += d;
+		}
+		listTotalMS = total;
+		listTotalPartial = partial;
+		listTotalSong = player.getState().getSong();
+	}
+	
+	public final void paintItem(Graphics g, int itemIndex, Object item, boolean selected, int itemX, int itemY, int itemWidth, int itemHeight, int itemTextX, int itemTextY) {
+		final boolean h = (listBox.getHilightIndex() == itemIndex);
+		if (selected) {
+			Main.Customizer.paintItem(g, false, listBox.isFocused(), h, itemX, itemY, itemWidth);
+			g.setColor(Main.Customizer.getItemTextColor(listBox.isFocused(), h));
+		} else if (listBox.isMarked(itemIndex)) {
+			Main.Customizer.paintItem(g, false, false, h, itemX, itemY, itemWidth);
+			g.setColor(Main.Customizer.getItemTextColor(false, h));
+		} else {
+			g.setColor(Behaviour.ColorWindow);
+			g.fillRect(itemX, itemY, itemWidth, itemHeight);
+			g.setColor(Main.Customizer.getItemTextColor(false, h));
+		}
+		final int durationMS = ((Song)item).getDurationMS();
+		if (durationMS < 0) {
+			g.drawString(item.toString(), itemTextX, itemTextY, 0);
+			return;
+		}
+		itemText.delete(0, itemText.length());
+		Song.appendDuration(itemText, durationMS);
+		final String d = itemText.toString();
+		final int dx = itemX + itemWidth - 2 - Main.FontUI.stringWidth(d);
+		g.drawString(d, dx, itemTextY, 0);
+		//the title must not run over the duration
+		final int clipX = g.getClipX(), clipY = g.getClipY(), clipWidth = g.getClipWidth(), clipHeight = g.getClipHeight();
+		g.clipRect(itemX, itemY, dx - Main.FontUI.stringWidth(" ") - itemX, itemHeight);
+		g.drawString(item.toString(), itemTextX, itemTextY, 0);
+		g.setClip(clipX, clipY, clipWidth, clipHeight);
 	}
 }
@@ -40,6 +40,7 @@ import javax.microedition.lcdui.Graphics;
 import player.Equalizer;
 import player.Player;
 import player.PlayerListener;
+import player.PlayerState;
 import player.Song;
 
 final class WindowPlayerCar extends Window implements PlayerListener {
@@ -210,7 +211,10 @@ final class WindowPlayerCar extends Window implements PlayerListener {
 	}
 
 	protected final void paintContents(Graphics g, int screenOffsetX, int screenOffsetY, int clipX, int clipY, int clipWidth, int clipHeight) {
-		final Song cursong = player.getCurrentSong();
+		//everything comes from the same snapshot, even if the player
+		//changes in the middle of the painting
+		final PlayerState state = player.getState();
+		final Song cursong = state.getSong();
 		final String title;
 		
 		titleText.delete(0, titleText.length());
@@ -221,23 +225,26 @@ final class WindowPlayerCar extends Window implements PlayerListener {
 			title = cursong.getTitle();
 			
 			//update the player stuff
-			if (!player.isSongLoaded()) {
+			switch (state.getStatus()) {
+			case PlayerState.STOPPED:
 				titleText.append("[Parado]");
-			} else {
-				if (player.isPaused()) {
-					titleText.append("[Pausado]");
-				} else if (player.isRadioMode()) {
-					titleText.append("[Recebendo]");
-				} else {
-					int playTime = player.getCurrentPlayTime();
-					titleText.append(playTime / 60);
-					titleText.append('\'');
-					playTime %= 60;
-					if (playTime < 10) titleText.append('0');
-					titleText.append(playTime);
-					titleText.append('\"');
-					titleText.append(player.getCurrentSongLength());
-				}
+				break;
+			case PlayerState.PAUSED:
+				titleText.append("[Pausado]");
+				break;
+			case PlayerState.RECEIVING:
+				titleText.append("[Recebendo]");
+				break;
+			default:
+				int playTime = state.getTimeSec();
+				titleText.append(playTime / 60);
+				titleText.append('\'');
+				playTime %= 60;
+				if (playTime < 10) titleText.append('0');
+				titleText.append(playTime);
+				titleText.append('\"');
+				titleText.append(state.getLength());
+				break;
 			}
 		}
 		
@@ -246,10 +253,10 @@ final class WindowPlayerCar extends Window implements PlayerListener {
 			//volume to its end
 			if (cursong != null)
 				titleText.append(" - ");
-			if (player.getVolume() == 0) {
+			if (state.getVolume() == 0) {
 				titleText.append("Mudo");
 			} else {
-				titleText.append(player.getVolume());
+				titleText.append(state.getVolume());
 				titleText.append('%');
 			}
 		}
@@ -275,11 +282,28 @@ final class WindowPlayerCar extends Window implements PlayerListener {
 		return windowPlayer.getSong(nextSong, justPeakNext);
 	}
 	
+	public final Song peekSong(int distance) {
+		return windowPlayer.peekSong(distance);
+	}
+	
+	public final Song getSelectedSong() {
+		return windowPlayer.getSelectedSong();
+	}
+	
 	public final void resetSongCycling() {
 		windowPlayer.resetSongCycling();
 	}
 	
-	public final void stateChanged() {
-		invalidate(0, (getHeight() >> 1) - Main.FontTitle.height - 2, getWidth(), (Main.FontTitle.height << 1) + 4);
+	public final boolean isTimeVisible() {
+		return (Main.appWindow() == this && !Main.isScreenSaverActive() && Main.isCanvasShown());
+	}
+	
+	public final void stateChanged(int changes) {
+		if ((changes & PlayerState.CHANGED_SONG) != 0) {
+			invalidate(0, (getHeight() >> 1) - Main.FontTitle.height - 2, getWidth(), (Main.FontTitle.height << 1) + 4);
+		} else {
+			//only the line below the title
+			invalidate(0, (getHeight() >> 1), getWidth(), Main.FontTitle.height + 2);
+		}
 	}
 }